@@ -0,0 +1,384 @@
+package com.vertispan.recipes;
+
+import org.jspecify.annotations.Nullable;
+import org.openrewrite.Cursor;
+import org.openrewrite.internal.ListUtils;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaTemplate;
+import org.openrewrite.java.tree.Expression;
+import org.openrewrite.java.tree.Flag;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.java.tree.Space;
+import org.openrewrite.java.tree.Statement;
+import org.openrewrite.java.tree.TypeUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * The rules for gutting a class, shared by {@link RemoveClassInternals} and {@link EliminateUnreachableTypes} so
+ * that both leave the same thing behind. {@link #gut} removes the members that nothing outside the class can use,
+ * and each recipe then replaces the remaining method bodies with {@link #stub} as it visits them, throwing whatever
+ * exception it is configured to.
+ */
+public final class ClassGutter {
+    private ClassGutter() {
+    }
+
+    /**
+     * Removes the members of a gutted class that nothing outside it can use: private methods, fields and nested
+     * classes, and initializer blocks. Compile-time constants are kept, since callers may have inlined them or use
+     * them in annotations and switch cases. Other fields keep their declared type but lose their initializer, and
+     * {@code final} if they have one, since whatever assigned them is gone. Interface fields are kept as they are,
+     * since they can't be left unassigned. Private members are still kept if what is left refers to them, such as
+     * a nested class used as the type of a field or in a signature. Method bodies are stubbed when they are visited.
+     *
+     * @param retained ids of the members to keep as they are
+     */
+    public static J.ClassDeclaration gut(J.ClassDeclaration classDecl, Set<UUID> retained) {
+        String owner = classDecl.getType() == null ? "" : classDecl.getType().getFullyQualifiedName();
+        Set<String> constants = constants(classDecl);
+        Set<String> keptInitializers = keptInitializers(classDecl, constants);
+        // What is left of each member, before removing the private ones that nothing left refers to
+        List<Statement> left = ListUtils.map(classDecl.getBody().getStatements(), stmt -> {
+            if (retained.contains(stmt.getId())) {
+                return stmt;
+            } else if (stmt instanceof J.Block) {
+                return null; // Remove static and instance initializers
+            } else if (stmt instanceof J.VariableDeclarations) {
+                J.VariableDeclarations field = (J.VariableDeclarations) stmt;
+                if (keptInitializers.contains(field.getVariables().get(0).getSimpleName())) {
+                    return field;
+                }
+                field = field.withVariables(ListUtils.map(field.getVariables(), variable -> variable.withInitializer(null)));
+                return field.hasModifier(J.Modifier.Type.Final) ? withoutFinal(field) : field;
+            }
+            return stmt;
+        });
+
+        // Starting from everything that isn't removed outright, keep each private member that is referred to
+        Map<String, List<Statement>> privateMembers = privateMembers(left);
+        Set<UUID> kept = new HashSet<>();
+        Deque<Statement> work = new ArrayDeque<>();
+        for (Statement stmt : left) {
+            if (retained.contains(stmt.getId()) || !isRemovable(stmt, constants)) {
+                work.add(stmt);
+            }
+        }
+        while (!work.isEmpty()) {
+            Statement member = work.poll();
+            if (!kept.add(member.getId())) {
+                continue;
+            }
+            Set<String> used = new HashSet<>();
+            if (member instanceof J.MethodDeclaration && !retained.contains(member.getId())) {
+                // Only the signature, and the call that starts a constructor, outlive stubbing
+                J.MethodDeclaration method = (J.MethodDeclaration) member;
+                references(method.withBody(null), owner, used);
+                if (method.isConstructor() && method.getBody() != null && !method.getBody().getStatements().isEmpty()
+                        && isConstructorCall(method.getBody().getStatements().get(0))) {
+                    references(method.getBody().getStatements().get(0), owner, used);
+                }
+            } else {
+                references(member, owner, used);
+            }
+            for (String key : used) {
+                work.addAll(privateMembers.getOrDefault(key, Collections.emptyList()));
+            }
+        }
+        return classDecl.withBody(classDecl.getBody().withStatements(ListUtils.map(left, stmt -> kept.contains(stmt.getId()) ? stmt : null)));
+    }
+
+    /**
+     * @return true for the private methods, fields and nested classes that are removed unless something left uses
+     * them. Private constructors stay, so that the class can't gain a default constructor, and so calls to them
+     * from other constructors still compile.
+     */
+    private static boolean isRemovable(Statement stmt, Set<String> constants) {
+        if (stmt instanceof J.MethodDeclaration) {
+            return ((J.MethodDeclaration) stmt).hasModifier(J.Modifier.Type.Private) && !((J.MethodDeclaration) stmt).isConstructor();
+        } else if (stmt instanceof J.VariableDeclarations) {
+            J.VariableDeclarations field = (J.VariableDeclarations) stmt;
+            return field.hasModifier(J.Modifier.Type.Private) && !constants.contains(field.getVariables().get(0).getSimpleName());
+        }
+        return stmt instanceof J.ClassDeclaration && ((J.ClassDeclaration) stmt).hasModifier(J.Modifier.Type.Private);
+    }
+
+    /**
+     * Indexes the private members of a class by the keys that {@link #references} collects uses of them under.
+     */
+    static Map<String, List<Statement>> privateMembers(List<Statement> statements) {
+        Map<String, List<Statement>> privateMembers = new HashMap<>();
+        for (Statement stmt : statements) {
+            if (stmt instanceof J.MethodDeclaration && ((J.MethodDeclaration) stmt).hasModifier(J.Modifier.Type.Private)) {
+                J.MethodDeclaration method = (J.MethodDeclaration) stmt;
+                String name = method.isConstructor() ? "<constructor>" : method.getSimpleName();
+                privateMembers.computeIfAbsent("method " + name, ignore -> new ArrayList<>()).add(method);
+            } else if (stmt instanceof J.VariableDeclarations && ((J.VariableDeclarations) stmt).hasModifier(J.Modifier.Type.Private)) {
+                for (J.VariableDeclarations.NamedVariable variable : ((J.VariableDeclarations) stmt).getVariables()) {
+                    privateMembers.computeIfAbsent("field " + variable.getSimpleName(), ignore -> new ArrayList<>()).add(stmt);
+                }
+            } else if (stmt instanceof J.ClassDeclaration && ((J.ClassDeclaration) stmt).hasModifier(J.Modifier.Type.Private)
+                    && ((J.ClassDeclaration) stmt).getType() != null) {
+                privateMembers.computeIfAbsent("class " + ((J.ClassDeclaration) stmt).getType().getFullyQualifiedName(), ignore -> new ArrayList<>()).add(stmt);
+            }
+        }
+        return privateMembers;
+    }
+
+    /**
+     * @return the names of the fields of the given class that the tree assigns
+     */
+    static Set<String> assignedFields(J tree, String owner) {
+        Set<String> assigned = new HashSet<>();
+        new JavaIsoVisitor<Set<String>>() {
+            @Override
+            public J.Assignment visitAssignment(J.Assignment assignment, Set<String> assigned) {
+                Expression variable = assignment.getVariable();
+                JavaType.Variable field = variable instanceof J.Identifier ? ((J.Identifier) variable).getFieldType()
+                        : variable instanceof J.FieldAccess ? ((J.FieldAccess) variable).getName().getFieldType() : null;
+                if (field != null && field.getOwner() instanceof JavaType.FullyQualified
+                        && ((JavaType.FullyQualified) field.getOwner()).getFullyQualifiedName().equals(owner)) {
+                    assigned.add(field.getName());
+                }
+                return super.visitAssignment(assignment, assigned);
+            }
+        }.visit(tree, assigned);
+        return assigned;
+    }
+
+    /**
+     * Collects the keys of the private methods and fields of the given class, and of every type, that the tree
+     * refers to.
+     */
+    static void references(J tree, String owner, Set<String> used) {
+        new JavaIsoVisitor<Set<String>>() {
+            @Override
+            public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, Set<String> used) {
+                addMethod(method.getMethodType(), used);
+                return super.visitMethodInvocation(method, used);
+            }
+
+            @Override
+            public J.MemberReference visitMemberReference(J.MemberReference memberRef, Set<String> used) {
+                addMethod(memberRef.getMethodType(), used);
+                return super.visitMemberReference(memberRef, used);
+            }
+
+            @Override
+            public J.NewClass visitNewClass(J.NewClass newClass, Set<String> used) {
+                addMethod(newClass.getConstructorType(), used);
+                return super.visitNewClass(newClass, used);
+            }
+
+            private void addMethod(JavaType.@Nullable Method method, Set<String> used) {
+                if (method != null && method.hasFlags(Flag.Private) && method.getDeclaringType().getFullyQualifiedName().equals(owner)) {
+                    used.add("method " + method.getName());
+                }
+            }
+
+            @Override
+            public J.Identifier visitIdentifier(J.Identifier identifier, Set<String> used) {
+                JavaType.Variable field = identifier.getFieldType();
+                if (field != null && field.hasFlags(Flag.Private) && field.getOwner() instanceof JavaType.FullyQualified
+                        && ((JavaType.FullyQualified) field.getOwner()).getFullyQualifiedName().equals(owner)) {
+                    used.add("field " + field.getName());
+                }
+                JavaType.FullyQualified type = TypeUtils.asFullyQualified(identifier.getType());
+                if (type != null) {
+                    used.add("class " + type.getFullyQualifiedName());
+                }
+                return super.visitIdentifier(identifier, used);
+            }
+        }.visit(tree, used);
+    }
+
+    /**
+     * @return true if the statement is a {@code this(...)} or {@code super(...)} call, which can only start a
+     * constructor
+     */
+    static boolean isConstructorCall(Statement statement) {
+        if (!(statement instanceof J.MethodInvocation)) {
+            return false;
+        }
+        String name = ((J.MethodInvocation) statement).getSimpleName();
+        return name.equals("this") || name.equals("super");
+    }
+
+    /**
+     * Names the fields whose initializers {@link #gut} keeps, so that code scanned for what a gutted class still
+     * needs can tell them apart from the initializers that are removed.
+     */
+    public static Set<String> keptInitializers(J.ClassDeclaration classDecl) {
+        return keptInitializers(classDecl, constants(classDecl));
+    }
+
+    /**
+     * Every field of an interface, since they can't be left unassigned, or the constants of any other class.
+     */
+    private static Set<String> keptInitializers(J.ClassDeclaration classDecl, Set<String> constants) {
+        if (classDecl.getKind() != J.ClassDeclaration.Kind.Type.Interface && classDecl.getKind() != J.ClassDeclaration.Kind.Type.Annotation) {
+            return constants;
+        }
+        Set<String> fields = new HashSet<>();
+        for (Statement stmt : classDecl.getBody().getStatements()) {
+            if (stmt instanceof J.VariableDeclarations) {
+                ((J.VariableDeclarations) stmt).getVariables().forEach(variable -> fields.add(variable.getSimpleName()));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Finds the names of the fields declared in this class that are compile-time constants - final primitives and
+     * strings initialized with constant expressions. Constants may refer to each other in any order, so this
+     * repeats until no more are found.
+     */
+    private static Set<String> constants(J.ClassDeclaration classDecl) {
+        Set<String> constants = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Statement stmt : classDecl.getBody().getStatements()) {
+                if (!(stmt instanceof J.VariableDeclarations)) {
+                    continue;
+                }
+                J.VariableDeclarations field = (J.VariableDeclarations) stmt;
+                if (!field.hasModifier(J.Modifier.Type.Final) || !(field.getType() instanceof JavaType.Primitive || TypeUtils.isString(field.getType()))
+                        || constants.contains(field.getVariables().get(0).getSimpleName())) {
+                    continue;
+                }
+                if (field.getVariables().stream().allMatch(variable -> isConstant(variable.getInitializer(), classDecl.getType(), constants))) {
+                    field.getVariables().forEach(variable -> constants.add(variable.getSimpleName()));
+                    changed = true;
+                }
+            }
+        }
+        return constants;
+    }
+
+    /**
+     * @param owner the class being gutted, whose fields are only constant if they are already known to be
+     * @param constants fields of the class being gutted that are known to be constants
+     */
+    private static boolean isConstant(@Nullable Expression expression, JavaType.@Nullable FullyQualified owner, Set<String> constants) {
+        if (expression instanceof J.Literal) {
+            return true;
+        } else if (expression instanceof J.Parentheses) {
+            return isConstant((Expression) ((J.Parentheses<?>) expression).getTree(), owner, constants);
+        } else if (expression instanceof J.TypeCast) {
+            return isConstant(((J.TypeCast) expression).getExpression(), owner, constants);
+        } else if (expression instanceof J.Unary) {
+            return isConstant(((J.Unary) expression).getExpression(), owner, constants);
+        } else if (expression instanceof J.Binary) {
+            return isConstant(((J.Binary) expression).getLeft(), owner, constants)
+                    && isConstant(((J.Binary) expression).getRight(), owner, constants);
+        } else if (expression instanceof J.Ternary) {
+            J.Ternary ternary = (J.Ternary) expression;
+            return isConstant(ternary.getCondition(), owner, constants) && isConstant(ternary.getTruePart(), owner, constants)
+                    && isConstant(ternary.getFalsePart(), owner, constants);
+        }
+        JavaType.Variable field = expression instanceof J.Identifier ? ((J.Identifier) expression).getFieldType()
+                : expression instanceof J.FieldAccess ? ((J.FieldAccess) expression).getName().getFieldType() : null;
+        if (field == null || !field.hasFlags(Flag.Static, Flag.Final)) {
+            return false;
+        }
+        if (owner != null && TypeUtils.isOfType(field.getOwner(), owner)) {
+            return constants.contains(field.getName());
+        }
+        // Constants of other classes are kept by them, if they are gutted too
+        return field.getType() instanceof JavaType.Primitive || TypeUtils.isString(field.getType());
+    }
+
+    /**
+     * @return true if visiting the method should replace its body: it has one, it isn't already a stub, and it isn't
+     * a constructor with nothing to remove but the call that starts it
+     */
+    public static boolean needsStub(J.MethodDeclaration method) {
+        if (method.getBody() == null) {
+            return false;
+        }
+        List<Statement> statements = method.getBody().getStatements();
+        if (!statements.isEmpty() && isConstructorCall(statements.get(0))) {
+            statements = statements.subList(1, statements.size());
+        }
+        if (method.isConstructor() && statements.isEmpty()) {
+            return false;
+        }
+        return statements.size() != 1 || !isStubThrow(statements.get(0));
+    }
+
+    /**
+     * Recognizes the throws that {@link #stub} writes - a new UnsupportedOperationException with a literal message,
+     * or a call to a stub helper's {@code unsupported} method with a literal id.
+     */
+    private static boolean isStubThrow(Statement statement) {
+        if (!(statement instanceof J.Throw)) {
+            return false;
+        }
+        Expression exception = ((J.Throw) statement).getException();
+        if (exception instanceof J.NewClass) {
+            J.NewClass newClass = (J.NewClass) exception;
+            return TypeUtils.isOfClassType(newClass.getType(), "java.lang.UnsupportedOperationException")
+                    && newClass.getArguments().stream().allMatch(argument -> argument instanceof J.Literal || argument instanceof J.Empty);
+        } else if (exception instanceof J.MethodInvocation) {
+            J.MethodInvocation call = (J.MethodInvocation) exception;
+            return call.getSimpleName().equals("unsupported") && call.getArguments().size() == 1 && call.getArguments().get(0) instanceof J.Literal;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the body of a method that {@link #needsStub} with a throw. Constructors still start with any this or
+     * super call.
+     *
+     * @param cursor the cursor of the method being visited
+     * @param template makes the template for the new body, given the code that must come before the throw
+     */
+    public static J.MethodDeclaration stub(Cursor cursor, J.MethodDeclaration method, Function<String, JavaTemplate> template) {
+        List<Statement> statements = method.getBody().getStatements();
+        // This is pretty dirty, but I'm not clear how to insert a statement as an arg to the builder
+        String prefix = method.isConstructor() && !statements.isEmpty() && isConstructorCall(statements.get(0)) ? statements.get(0) + "; " : "";
+        return template.apply(prefix).apply(cursor, method.getCoordinates().replaceBody());
+    }
+
+    /**
+     * @return the message for the exception a stubbed method throws - the class's name for constructors
+     */
+    public static String stubMessage(J.ClassDeclaration classDecl, J.MethodDeclaration method) {
+        return method.isConstructor() ? classDecl.getSimpleName() : method.getSimpleName();
+    }
+
+    /**
+     * Removes the {@code final} modifier from a field whose constructors or initializers are going away, moving its
+     * prefix onto whatever followed it.
+     */
+    private static J.VariableDeclarations withoutFinal(J.VariableDeclarations field) {
+        List<J.Modifier> modifiers = field.getModifiers();
+        for (int i = 0; i < modifiers.size(); i++) {
+            if (modifiers.get(i).getType() == J.Modifier.Type.Final) {
+                Space prefix = modifiers.get(i).getPrefix();
+                List<J.Modifier> remaining = new ArrayList<>(modifiers);
+                remaining.remove(i);
+                if (i < remaining.size()) {
+                    // Whatever followed takes the place of the removed modifier
+                    remaining.set(i, remaining.get(i).withPrefix(prefix));
+                    return field.withModifiers(remaining);
+                }
+                field = field.withModifiers(remaining);
+                return i == 0 && field.getTypeExpression() != null ? field.withTypeExpression(field.getTypeExpression().withPrefix(prefix)) : field;
+            }
+        }
+        return field;
+    }
+}
@@ -0,0 +1,330 @@
+package com.vertispan.recipes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On-disk cache of the outgoing type edges of each scanned source file, with the kinds of each edge, so that
+ * later runs over the same sources only need to scan files that have changed. Each source file gets its own cache
+ * file, named for a hash of its source path, holding the hash of the content it was built from and a small string
+ * table of type names. Reads memory-map the cache file, and a missing, stale or unreadable entry is treated as a
+ * miss.
+ */
+public final class DependencyCache {
+    private static final int MAGIC = 0x45555444;// "EUTD"
+    private static final int VERSION = 6;
+
+    private final Path directory;
+    // Identifies the scan settings that produced the entries - entries written with other settings are ignored
+    private final int variant;
+
+    public DependencyCache(Path directory, int variant) {
+        this.directory = directory;
+        this.variant = variant;
+    }
+
+    /**
+     * The edges recorded for a single source file.
+     */
+    public static class Entry {
+        // Each type declared in the file, mapped to the types it depends on, each with its EdgeKind mask
+        private final Map<String, Map<String, Integer>> types = new LinkedHashMap<>();
+        // Types declared in the file with the public modifier
+        private final Set<String> publicTypes = new LinkedHashSet<>();
+        // Each member declared in the file, only recorded when scanning at the member level
+        private final Map<String, Member> members = new LinkedHashMap<>();
+        // Types referred to from javadoc in the file
+        private final Set<String> javadocReferences = new LinkedHashSet<>();
+        // Lines in each type and member, and in the whole file, only recorded when reporting what would be removed
+        private final Map<String, Integer> lines = new LinkedHashMap<>();
+        private int sourceLines;
+
+        public Map<String, Map<String, Integer>> getTypes() {
+            return types;
+        }
+
+        public Set<String> getPublicTypes() {
+            return publicTypes;
+        }
+
+        public Map<String, Member> getMembers() {
+            return members;
+        }
+
+        public Set<String> getJavadocReferences() {
+            return javadocReferences;
+        }
+
+        public Map<String, Integer> getLines() {
+            return lines;
+        }
+
+        public int getSourceLines() {
+            return sourceLines;
+        }
+
+        public void setSourceLines(int sourceLines) {
+            this.sourceLines = sourceLines;
+        }
+    }
+
+    public static class Member {
+        private final String owner;
+        private final Map<String, Integer> dependencies;
+        private final Set<String> overrides;
+
+        public Member(String owner, Map<String, Integer> dependencies, Set<String> overrides) {
+            this.owner = owner;
+            this.dependencies = dependencies;
+            this.overrides = overrides;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public Map<String, Integer> getDependencies() {
+            return dependencies;
+        }
+
+        public Set<String> getOverrides() {
+            return overrides;
+        }
+    }
+
+    /**
+     * @return the cached edges for the given file, or null if there is no entry for this content
+     */
+    public Entry read(Path sourcePath, byte[] contentHash) {
+        Path file = cacheFile(sourcePath);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != variant) {
+                return null;
+            }
+            if (!Arrays.equals(readBytes(buffer), contentHash) || !sourcePath.toString().equals(readString(buffer))) {
+                return null;
+            }
+
+            String[] strings = new String[readCount(buffer)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer);
+            }
+            Entry entry = new Entry();
+            int typeCount = readCount(buffer);
+            for (int i = 0; i < typeCount; i++) {
+                String type = strings[buffer.getInt()];
+                if (buffer.get() != 0) {
+                    entry.publicTypes.add(type);
+                }
+                entry.types.put(type, readDependencies(buffer, strings));
+            }
+            int memberCount = readCount(buffer);
+            for (int i = 0; i < memberCount; i++) {
+                String name = strings[buffer.getInt()];
+                String owner = strings[buffer.getInt()];
+                Map<String, Integer> dependencies = readDependencies(buffer, strings);
+                Set<String> overrides = new LinkedHashSet<>();
+                int overrideCount = readCount(buffer);
+                for (int j = 0; j < overrideCount; j++) {
+                    overrides.add(strings[buffer.getInt()]);
+                }
+                entry.members.put(name, new Member(owner, dependencies, overrides));
+            }
+            int javadocCount = readCount(buffer);
+            for (int i = 0; i < javadocCount; i++) {
+                entry.javadocReferences.add(strings[buffer.getInt()]);
+            }
+            entry.sourceLines = buffer.getInt();
+            int linesCount = readCount(buffer);
+            for (int i = 0; i < linesCount; i++) {
+                entry.lines.put(strings[buffer.getInt()], buffer.getInt());
+            }
+            return entry;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            // Corrupt or truncated, it will be rewritten after the file is scanned
+            return null;
+        }
+    }
+
+    public void write(Path sourcePath, byte[] contentHash, Entry entry) {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Integer>> type : entry.types.entrySet()) {
+            stringId(type.getKey(), ids, strings);
+            for (String dependency : type.getValue().keySet()) {
+                stringId(dependency, ids, strings);
+            }
+        }
+        for (Map.Entry<String, Member> member : entry.members.entrySet()) {
+            stringId(member.getKey(), ids, strings);
+            stringId(member.getValue().owner, ids, strings);
+            for (String dependency : member.getValue().dependencies.keySet()) {
+                stringId(dependency, ids, strings);
+            }
+            for (String override : member.getValue().overrides) {
+                stringId(override, ids, strings);
+            }
+        }
+        for (String reference : entry.javadocReferences) {
+            stringId(reference, ids, strings);
+        }
+        for (String name : entry.lines.keySet()) {
+            stringId(name, ids, strings);
+        }
+
+        Path file = cacheFile(sourcePath);
+        try {
+            Files.createDirectories(directory);
+            // Write to a temp file and move it into place, so a concurrent reader never sees a partial entry
+            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(variant);
+                writeBytes(out, contentHash);
+                writeString(out, sourcePath.toString());
+
+                out.writeInt(strings.size());
+                for (String string : strings) {
+                    writeString(out, string);
+                }
+                out.writeInt(entry.types.size());
+                for (Map.Entry<String, Map<String, Integer>> type : entry.types.entrySet()) {
+                    out.writeInt(ids.get(type.getKey()));
+                    out.writeBoolean(entry.publicTypes.contains(type.getKey()));
+                    writeDependencies(out, type.getValue(), ids);
+                }
+                out.writeInt(entry.members.size());
+                for (Map.Entry<String, Member> member : entry.members.entrySet()) {
+                    out.writeInt(ids.get(member.getKey()));
+                    out.writeInt(ids.get(member.getValue().owner));
+                    writeDependencies(out, member.getValue().dependencies, ids);
+                    out.writeInt(member.getValue().overrides.size());
+                    for (String override : member.getValue().overrides) {
+                        out.writeInt(ids.get(override));
+                    }
+                }
+                out.writeInt(entry.javadocReferences.size());
+                for (String reference : entry.javadocReferences) {
+                    out.writeInt(ids.get(reference));
+                }
+                out.writeInt(entry.sourceLines);
+                out.writeInt(entry.lines.size());
+                for (Map.Entry<String, Integer> lines : entry.lines.entrySet()) {
+                    out.writeInt(ids.get(lines.getKey()));
+                    out.writeInt(lines.getValue());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write dependency cache entry for " + sourcePath, e);
+        }
+    }
+
+    private static Map<String, Integer> readDependencies(ByteBuffer buffer, String[] strings) {
+        Map<String, Integer> dependencies = new LinkedHashMap<>();
+        int dependencyCount = readCount(buffer);
+        for (int i = 0; i < dependencyCount; i++) {
+            dependencies.put(strings[buffer.getInt()], buffer.getInt());
+        }
+        return dependencies;
+    }
+
+    private static void writeDependencies(DataOutputStream out, Map<String, Integer> dependencies, Map<String, Integer> ids) throws IOException {
+        out.writeInt(dependencies.size());
+        for (Map.Entry<String, Integer> dependency : dependencies.entrySet()) {
+            out.writeInt(ids.get(dependency.getKey()));
+            out.writeInt(dependency.getValue());
+        }
+    }
+
+    private static void stringId(String string, Map<String, Integer> ids, List<String> strings) {
+        if (!ids.containsKey(string)) {
+            ids.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    private Path cacheFile(Path sourcePath) {
+        return directory.resolve(hex(sha256(sourcePath.toString().getBytes(StandardCharsets.UTF_8))) + ".deps");
+    }
+
+    /**
+     * Hashes the given content with SHA-256, for use as a content hash.
+     */
+    public static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        writeBytes(out, string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the number of items that follow. Each item takes at least four bytes, so a count that is negative or
+     * larger than what is left must be corrupt, and is rejected before anything is allocated for it.
+     */
+    private static int readCount(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+}
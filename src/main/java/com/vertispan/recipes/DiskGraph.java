@@ -0,0 +1,196 @@
+package com.vertispan.recipes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the edges scanned by {@link EliminateUnreachableTypes} in files rather than on the heap, for source sets
+ * too large to keep every dependency of every type in memory. Each edge is appended to a log as soon as its source
+ * file is scanned, with both ends given as ids into a table of names. That table also serves as
+ * {@link EliminateUnreachableTypes.Accumulator#intern}, so only one copy of each name stays on the heap. When the
+ * closure is needed, the log is read twice to lay the edges out in a memory-mapped file, ordered by the node they
+ * leave, and the {@link TypeGraph} is traversed directly over that mapping.
+ * <p>
+ * A single mapping is limited to 2GB, so at most {@code Integer.MAX_VALUE / 4} edges are supported.
+ */
+public final class DiskGraph {
+    private static final int MAX_EDGES = Integer.MAX_VALUE / Integer.BYTES;
+
+    private final Path directory;
+    private final Path log;
+    private DataOutputStream out;
+    private long edgeCount;
+    // Each name that has been interned or has been the source or target of an edge, indexed by the id used for it
+    // in the log. Names keep their ids when the log is cleared.
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    public DiskGraph(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            log = Files.createTempFile(directory, "edges", ".log");
+            log.toFile().deleteOnExit();
+            out = open(log);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create graph files in " + directory, e);
+        }
+    }
+
+    private static DataOutputStream open(Path log) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(log, StandardOpenOption.TRUNCATE_EXISTING)));
+    }
+
+    /**
+     * Appends the dependencies of one node to the log.
+     *
+     * @param dependencies each dependency, with the mask of {@link EdgeKind}s it was found by
+     */
+    public synchronized void append(String from, Map<String, Integer> dependencies) {
+        try {
+            int fromId = id(from);
+            for (Map.Entry<String, Integer> dependency : dependencies.entrySet()) {
+                out.writeInt(fromId);
+                out.writeInt(id(dependency.getKey()));
+                out.writeInt(dependency.getValue());
+            }
+            edgeCount += dependencies.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to " + log, e);
+        }
+    }
+
+    /**
+     * @return the canonical instance of the given name, adding it to the table if it is new
+     */
+    public synchronized String intern(String name) {
+        return names.get(id(name));
+    }
+
+    private int id(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * @return each name that has been interned, or has been the source or target of an edge
+     */
+    public synchronized List<String> names() {
+        return Collections.unmodifiableList(new ArrayList<>(names));
+    }
+
+    /**
+     * Discards every edge, so that the sources can be scanned again.
+     */
+    public synchronized void clear() {
+        try {
+            out.close();
+            out = open(log);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to reset " + log, e);
+        }
+        edgeCount = 0;
+    }
+
+    /**
+     * Builds the graph from the logged edges and any edges already added to the builder. Logged edges to or from
+     * names that aren't nodes in the builder are dropped, as are edges found only by the ignored kinds.
+     *
+     * @param ignoredEdgeKinds mask of {@link EdgeKind}s to leave out
+     */
+    public synchronized TypeGraph build(TypeGraph.Builder builder, int ignoredEdgeKinds) {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + log, e);
+        }
+        int size = builder.size();
+        int[] nodeIds = new int[names.size()];
+        for (int i = 0; i < nodeIds.length; i++) {
+            nodeIds[i] = builder.idOf(names.get(i));
+        }
+
+        // First count the edges leaving each node, to find where each node's edges start
+        int[] positions = new int[size + 1];
+        for (int node = 0; node < size; node++) {
+            positions[node + 1] = builder.edgesFrom(node).length;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+            for (long i = 0; i < edgeCount; i++) {
+                int from = nodeIds[in.readInt()];
+                int to = nodeIds[in.readInt()];
+                int kinds = in.readInt();
+                if (from != -1 && to != -1 && (kinds & ~ignoredEdgeKinds) != 0) {
+                    positions[from + 1]++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + log, e);
+        }
+        long total = 0;
+        for (int node = 0; node < size; node++) {
+            total += positions[node + 1];
+            if (total > MAX_EDGES) {
+                throw new IllegalStateException("Too many edges to map into memory, at most " + MAX_EDGES + " are supported");
+            }
+            positions[node + 1] = (int) total;
+        }
+
+        IntBuffer offsets = map((size + 1) * (long) Integer.BYTES);
+        offsets.put(positions);
+        IntBuffer targets = map(total * Integer.BYTES);
+        for (int node = 0; node < size; node++) {
+            for (int target : builder.edgesFrom(node)) {
+                targets.put(positions[node]++, target);
+            }
+        }
+        // Then place each edge, using positions as the next free slot of each node
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+            for (long i = 0; i < edgeCount; i++) {
+                int from = nodeIds[in.readInt()];
+                int to = nodeIds[in.readInt()];
+                int kinds = in.readInt();
+                if (from != -1 && to != -1 && (kinds & ~ignoredEdgeKinds) != 0) {
+                    targets.put(positions[from]++, to);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + log, e);
+        }
+        return builder.build(offsets, targets);
+    }
+
+    /**
+     * Maps a new file of the given size. The file is deleted once mapped, where the platform allows it, and the
+     * mapping stays valid until it is collected.
+     */
+    private IntBuffer map(long bytes) {
+        try {
+            Path file = Files.createTempFile(directory, "graph", ".bin");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).asIntBuffer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map graph file in " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.vertispan.recipes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Why one type or member depends on another. A dependency found in more than one way has a bit set for each kind,
+ * and is only ignored if every one of its kinds is ignored.
+ */
+public enum EdgeKind {
+    // Structure that must be kept for anything to compile - a member's owner, an enclosing type, constructors, and
+    // fields declared together. Never ignored.
+    DECLARATION,
+    // Extends and implements clauses
+    SUPERTYPE,
+    // The declared type of a field
+    FIELD,
+    // Return, parameter and type parameter types of methods, and type parameters of types
+    SIGNATURE,
+    // Method, constructor and initializer bodies, initializers of fields other than constants, and anything inside a
+    // local or anonymous type
+    BODY,
+    // Annotations, including their arguments
+    ANNOTATION,
+    // Throws clauses
+    THROWS,
+    // Links and references in javadoc, only recorded when checking documentation
+    JAVADOC,
+    // Code that is kept even when the rest of a type's bodies are gutted - initializers of compile-time constants
+    // and interface fields, enum constants, and the this or super call that starts a constructor
+    INITIALIZER;
+
+    public int mask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Parses kind names, in any case, to a mask with a bit set for each.
+     */
+    public static int mask(Collection<String> kinds) {
+        int mask = 0;
+        for (String kind : kinds) {
+            EdgeKind edgeKind;
+            try {
+                edgeKind = valueOf(kind.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("Unknown edge kind " + kind, e);
+            }
+            mask |= edgeKind.mask();
+        }
+        return mask;
+    }
+
+    /**
+     * @return the lower case names of the kinds in the mask, separated by ","
+     */
+    public static String names(int mask) {
+        List<String> names = new ArrayList<>();
+        for (EdgeKind kind : values()) {
+            if ((mask & kind.mask()) != 0) {
+                names.add(kind.name().toLowerCase(Locale.ROOT));
+            }
+        }
+        return String.join(",", names);
+    }
+}
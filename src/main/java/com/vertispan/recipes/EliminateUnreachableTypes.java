@@ -4,38 +4,243 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import org.jspecify.annotations.Nullable;
 import org.openrewrite.ExecutionContext;
 import org.openrewrite.NlsRewrite;
+import org.openrewrite.Option;
 import org.openrewrite.ScanningRecipe;
+import org.openrewrite.SourceFile;
+import org.openrewrite.Tree;
 import org.openrewrite.TreeVisitor;
+import org.openrewrite.internal.ListUtils;
 import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaTemplate;
 import org.openrewrite.java.JavaVisitor;
 import org.openrewrite.java.JavadocVisitor;
+import org.openrewrite.java.tree.Flag;
 import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaSourceFile;
 import org.openrewrite.java.tree.JavaType;
 import org.openrewrite.java.tree.Javadoc;
+import org.openrewrite.java.tree.NameTree;
+import org.openrewrite.java.tree.Statement;
+import org.openrewrite.java.tree.TypeTree;
 import org.openrewrite.marker.Markers;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Records all dependencies from any type to another, then traverses the graph starting from
  * the entrypoint types to find all reachable types. All other types are removed.
+ * <p>
+ * With {@code memberLevel} enabled, each method, constructor and field is also a node in the graph, and only
+ * the types needed by reachable members are kept. Unreachable methods and fields are removed from kept types.
+ * An overriding method is reachable when the method it overrides is reachable and its own type is kept, and
+ * an override of a method we don't have sources for is kept along with its type. A method that a class inherits
+ * from a superclass to implement one of its interfaces counts as an override in that class. Constructors are always
+ * kept with their type, so that subclasses and final fields still compile.
+ * <p>
+ * With {@code rapidTypeAnalysis} enabled (which implies {@code memberLevel}), calls only dispatch to overrides in
+ * types that are instantiated somewhere reachable, rather than in any type that is kept. A type that is only
+ * mentioned, in signatures, casts and the like, is kept, but its overrides are removed, or if they implement an
+ * abstract method that is kept or comes from a type without sources, and a kept type could inherit them, their
+ * bodies are replaced with a throw. Instantiating a type also instantiates its
+ * supertypes, a lambda or method reference instantiates its functional interface, and enums and entrypoints are
+ * always instantiated. Instances created by reflection or deserialization are not seen.
+ * <p>
+ * Each dependency records the {@link EdgeKind}s it was found by, and {@code ignoredEdgeKinds} leaves out
+ * dependencies found only in those ways - for example, ignoring annotation and throws edges keeps types that are
+ * only used there. Anything left referring to a removed type must then be fixed up separately.
+ * <p>
+ * With {@code entrypointPartitions}, several named sets of entrypoints are traversed at once, and each kept type
+ * is reported with the partitions that need it. Every type needed by any partition, or by {@code entrypointTypes},
+ * is kept, and the types needed by each partition can be written to a file of their own.
+ * <p>
+ * With {@code diskGraphDirectory}, the dependencies of each source file are moved to files in that directory as
+ * soon as it is scanned, and the closure is computed over a memory-mapped copy of them, so the heap only needs to
+ * hold the names of the types and members rather than every edge between them.
+ * <p>
+ * With {@code gutSignatureOnlyTypes}, a type that no kept code needs, but that is still mentioned in a kept
+ * signature, field or throws clause, is gutted rather than kept whole, the same way {@link RemoveClassInternals}
+ * does: method bodies throw, initializer blocks are removed, and private members are removed unless what remains
+ * refers to them. Compile-time constants and interface fields keep their initializers, and other fields lose theirs.
+ * Only the dependencies left after gutting count towards reachability. This works at the type level, so can't be
+ * combined with {@code memberLevel}, nor with the reports of why types are kept.
  */
-public class EliminateUnreachableTypes extends ScanningRecipe<Map<String, EliminateUnreachableTypes.TypeModel>> {
+public class EliminateUnreachableTypes extends ScanningRecipe<EliminateUnreachableTypes.Accumulator> {
+    // Kinds of dependency that need the code of the type they lead to, rather than only its name
+    private static final int CODE_EDGE_KINDS = EdgeKind.DECLARATION.mask() | EdgeKind.SUPERTYPE.mask()
+            | EdgeKind.BODY.mask() | EdgeKind.INITIALIZER.mask();
+
+    @Option(displayName = "Entrypoint types",
+            description = "Types to keep, along with everything they depend on. Exact type names, or patterns as " +
+                    "described in TypePatternIndex, such as com.example.api.*",
+            example = "com.example.Main",
+            required = false)
     private final Set<String> entrypointTypes;
 
-    // true to respect links in javadoc, false to ignore them and rewrite where necessary
+    @Option(displayName = "Entrypoint partitions",
+            description = "Named sets of entrypoints, in the same form as entrypointTypes, each computed as a " +
+                    "separate closure. Each kept type is reported with the partitions that need it.",
+            required = false)
+    private final Map<String, Set<String>> entrypointPartitions;
+    private final transient TypePartitions typePartitions = new TypePartitions(this);
+
+    @Option(displayName = "Partition output directory",
+            description = "If set, the kept types of each partition are written to a file named for the partition " +
+                    "in this directory",
+            example = "target/partitions",
+            required = false)
+    private final @Nullable String partitionOutputDirectory;
+
+    @Option(displayName = "Check documentation",
+            description = "True to treat links in javadoc as dependencies, false to ignore them and rewrite links to " +
+                    "removed types",
+            required = false)
     private final boolean checkDocumentation;
 
-    public EliminateUnreachableTypes(@JsonProperty("entrypointTypes") List<String> entrypointTypes, @JsonProperty("checkDocumentation") Boolean checkDocumentation) {
-        this.entrypointTypes = Set.copyOf(entrypointTypes);
+    @Option(displayName = "Dependency cache directory",
+            description = "Directory to cache each source file's dependencies in, so unchanged files aren't scanned " +
+                    "again in later runs",
+            example = "target/dependency-cache",
+            required = false)
+    private final @Nullable String dependencyCacheDirectory;
+    private final transient @Nullable DependencyCache dependencyCache;
+
+    @Option(displayName = "Member level",
+            description = "True to track reachability of each method, constructor and field, and remove unreachable " +
+                    "members of kept types",
+            required = false)
+    private final boolean memberLevel;
+
+    @Option(displayName = "Rapid type analysis",
+            description = "True to only dispatch calls to overrides in types that are instantiated, rather than in " +
+                    "any type that is kept. Implies memberLevel.",
+            required = false)
+    private final boolean rapidTypeAnalysis;
+
+    @Option(displayName = "Explain kept types",
+            description = "True to report the shortest chain of dependencies from an entrypoint to each kept type",
+            required = false)
+    private final boolean explainKeptTypes;
+    private final transient KeptTypePaths keptTypePaths = new KeptTypePaths(this);
+
+    @Option(displayName = "Minimum reported cycle size",
+            description = "If set, report each cycle of types that depend on each other with at least this many types",
+            example = "10",
+            required = false)
+    private final @Nullable Integer minimumReportedCycleSize;
+    private final transient TypeCycles typeCycles = new TypeCycles(this);
+
+    @Option(displayName = "Graph export file",
+            description = "If set, the scanned graph is streamed to this file: Graphviz for .dot or .gv, GraphML for " +
+                    ".graphml, and otherwise a binary edge list that keepClosure can load",
+            example = "target/graph.bin",
+            required = false)
+    private final @Nullable String graphExportFile;
+
+    @Option(displayName = "Ignored edge kinds",
+            description = "Kinds of dependency to leave out of the graph, so dependencies found only in those ways " +
+                    "don't keep anything. Any of supertype, field, signature, body, annotation, throws, javadoc and " +
+                    "initializer.",
+            example = "annotation, throws",
+            required = false)
+    private final @Nullable List<String> ignoredEdgeKinds;
+    // Mask of the ignored EdgeKinds
+    private final transient int ignoredEdgeKindMask;
+
+    @Option(displayName = "Report only",
+            description = "True to only report what would be removed from each package, without changing anything",
+            required = false)
+    private final boolean reportOnly;
+    private final transient EliminationImpact eliminationImpact = new EliminationImpact(this);
+
+    @Option(displayName = "Gut signature-only types",
+            description = "True to gut types that are only needed by signatures, rather than keep all of their " +
+                    "dependencies",
+            required = false)
+    private final boolean gutSignatureOnlyTypes;
+
+    @Option(displayName = "Disk graph directory",
+            description = "If set, scanned edges are kept in files in this directory rather than on the heap",
+            example = "target/graph",
+            required = false)
+    private final @Nullable String diskGraphDirectory;
+
+    // Set when the current cycle removed a declaration or compilation unit, so other recipes should get another look
+    private final transient AtomicBoolean removedDeclarations = new AtomicBoolean();
+
+    public EliminateUnreachableTypes(@JsonProperty("entrypointTypes") @Nullable List<String> entrypointTypes,
+                                     @JsonProperty("checkDocumentation") Boolean checkDocumentation,
+                                     @JsonProperty("dependencyCacheDirectory") @Nullable String dependencyCacheDirectory,
+                                     @JsonProperty("memberLevel") Boolean memberLevel,
+                                     @JsonProperty("explainKeptTypes") Boolean explainKeptTypes,
+                                     @JsonProperty("minimumReportedCycleSize") @Nullable Integer minimumReportedCycleSize,
+                                     @JsonProperty("graphExportFile") @Nullable String graphExportFile,
+                                     @JsonProperty("rapidTypeAnalysis") Boolean rapidTypeAnalysis,
+                                     @JsonProperty("reportOnly") Boolean reportOnly,
+                                     @JsonProperty("ignoredEdgeKinds") @Nullable List<String> ignoredEdgeKinds,
+                                     @JsonProperty("entrypointPartitions") @Nullable Map<String, List<String>> entrypointPartitions,
+                                     @JsonProperty("partitionOutputDirectory") @Nullable String partitionOutputDirectory,
+                                     @JsonProperty("diskGraphDirectory") @Nullable String diskGraphDirectory,
+                                     @JsonProperty("gutSignatureOnlyTypes") Boolean gutSignatureOnlyTypes) {
+        this.entrypointTypes = entrypointTypes == null ? Set.of() : Set.copyOf(entrypointTypes);
+        this.entrypointPartitions = new TreeMap<>();
+        if (entrypointPartitions != null) {
+            entrypointPartitions.forEach((name, partition) -> this.entrypointPartitions.put(name, Set.copyOf(partition)));
+        }
+        // One bit is needed for each partition, and one more for entrypointTypes
+        if (this.entrypointPartitions.size() >= Long.SIZE) {
+            throw new IllegalStateException("At most " + (Long.SIZE - 1) + " entrypoint partitions are supported");
+        }
+        if (this.entrypointTypes.isEmpty() && this.entrypointPartitions.values().stream().allMatch(Set::isEmpty)) {
+            // Nothing would be reachable, so every scanned type would be removed
+            throw new IllegalStateException("At least one of entrypointTypes or entrypointPartitions must be set");
+        }
+        this.partitionOutputDirectory = partitionOutputDirectory;
+        this.diskGraphDirectory = diskGraphDirectory;
+        this.gutSignatureOnlyTypes = gutSignatureOnlyTypes != null && gutSignatureOnlyTypes;
         this.checkDocumentation = checkDocumentation != null && checkDocumentation;
+        this.dependencyCacheDirectory = dependencyCacheDirectory;
+        this.rapidTypeAnalysis = rapidTypeAnalysis != null && rapidTypeAnalysis;
+        this.memberLevel = this.rapidTypeAnalysis || memberLevel != null && memberLevel;
+        this.explainKeptTypes = explainKeptTypes != null && explainKeptTypes;
+        this.minimumReportedCycleSize = minimumReportedCycleSize;
+        this.graphExportFile = graphExportFile;
+        this.reportOnly = reportOnly != null && reportOnly;
+        this.ignoredEdgeKinds = ignoredEdgeKinds;
+        this.ignoredEdgeKindMask = ignoredEdgeKinds == null ? 0 : EdgeKind.mask(ignoredEdgeKinds);
+        if ((this.ignoredEdgeKindMask & EdgeKind.DECLARATION.mask()) != 0) {
+            throw new IllegalStateException("Declaration edges can't be ignored");
+        }
+        if (this.gutSignatureOnlyTypes && (this.memberLevel || this.explainKeptTypes || !this.entrypointPartitions.isEmpty())) {
+            throw new IllegalStateException("gutSignatureOnlyTypes can't be combined with memberLevel, rapidTypeAnalysis, explainKeptTypes or entrypointPartitions");
+        }
+        // Javadoc references are only recorded when they aren't dependencies, members only at the member level, and
+        // line counts only when reporting, so entries differ by those settings
+        int cacheVariant = (this.checkDocumentation ? 1 : 0) | (this.memberLevel ? 2 : 0) | (this.rapidTypeAnalysis ? 4 : 0) | (this.reportOnly ? 8 : 0);
+        this.dependencyCache = dependencyCacheDirectory == null ? null : new DependencyCache(Paths.get(dependencyCacheDirectory), cacheVariant);
     }
 
     @NlsRewrite.DisplayName
@@ -47,95 +252,912 @@ public class EliminateUnreachableTypes extends ScanningRecipe<Map<String, Elimin
     @NlsRewrite.Description
     @Override
     public String getDescription() {
-        return "Given a set of entrypoint types, eliminate all types that are not reachable from those entrypoints.";
+        return "Given a set of entrypoint types, eliminate all types that are not reachable from those entrypoints. Optionally also removes unreachable methods and fields from the types that are kept.";
     }
 
     @Override
-    public Map<String, TypeModel> getInitialValue(ExecutionContext ctx) {
-        return new LinkedHashMap<>();
+    public Accumulator getInitialValue(ExecutionContext ctx) {
+        Accumulator acc = new Accumulator();
+        if (diskGraphDirectory != null) {
+            acc.diskGraph = new DiskGraph(Paths.get(diskGraphDirectory));
+        }
+        return acc;
     }
 
 
     @Override
     public boolean causesAnotherCycle() {
-        return true;
+        return removedDeclarations.get();
+    }
+
+    @Override
+    public TreeVisitor<?, ExecutionContext> getScanner(Accumulator acc) {
+        return new TreeVisitor<Tree, ExecutionContext>() {
+            @Override
+            public boolean isAcceptable(SourceFile sourceFile, ExecutionContext ctx) {
+                return sourceFile instanceof JavaSourceFile;
+            }
+
+            @Override
+            public @Nullable Tree visit(@Nullable Tree tree, ExecutionContext ctx) {
+                // Each source file gets its own scanner, so that files can be scanned concurrently
+                return new ScanAllDependencies(acc).visit(tree, ctx);
+            }
+        };
     }
 
     @Override
-    public TreeVisitor<?, ExecutionContext> getScanner(Map<String, TypeModel> acc) {
-        return new ScanAllDependencies(acc);
+    public Collection<? extends SourceFile> generate(Accumulator acc, ExecutionContext ctx) {
+        acc.finishGraphExport();
+        Reachability reachability = reachability(acc);
+        if (!acc.reportsWritten) {
+            // Later cycles would only repeat the same rows
+            acc.reportsWritten = true;
+            if (explainKeptTypes) {
+                reportKeptTypePaths(acc, reachability, ctx);
+            }
+            if (minimumReportedCycleSize != null) {
+                reportCycles(reachability, ctx);
+            }
+            if (reportOnly) {
+                reportImpact(acc, reachability, ctx);
+            }
+            if (!entrypointPartitions.isEmpty()) {
+                reportPartitions(acc, reachability, ctx);
+            }
+        }
+        return Collections.emptyList();
     }
 
     @Override
-    public TreeVisitor<?, ExecutionContext> getVisitor(Map<String, TypeModel> acc) {
+    public TreeVisitor<?, ExecutionContext> getVisitor(Accumulator acc) {
+        if (reportOnly) {
+            // Nothing changes, so there is no need for another cycle either
+            return TreeVisitor.noop();
+        }
+        Reachability reachability = reachability(acc);
+        return new EliminateUnreachableTypesVisitor(reachability.graph, reachability.reachable, reachability.gutted, reachability.sourcesToVisit, acc.subtypes, acc.getMemberModels());
+    }
+
+    private Reachability reachability(Accumulator acc) {
+        synchronized (acc) {
+            if (acc.reachability == null) {
+                // First use since scanning finished, so this is a new cycle and nothing is removed yet
+                acc.reachability = computeReachability(acc);
+                removedDeclarations.set(false);
+            }
+            return acc.reachability;
+        }
+    }
+
+    private void reportCycles(Reachability reachability, ExecutionContext ctx) {
+        TypeGraph graph = reachability.graph;
+        int[] components = reachability.components;
+        Map<Integer, List<Integer>> membersByComponent = new HashMap<>();
+        for (int id = 0; id < components.length; id++) {
+            membersByComponent.computeIfAbsent(components[id], ignore -> new ArrayList<>()).add(id);
+        }
+        for (List<Integer> members : membersByComponent.values()) {
+            if (members.size() < minimumReportedCycleSize || members.size() < 2) {
+                continue;
+            }
+            int[] ids = members.stream().mapToInt(Integer::intValue).toArray();
+            int[] cuts = graph.feedbackEdges(ids);
+            List<String> cutNames = new ArrayList<>();
+            for (int i = 0; i < cuts.length; i += 2) {
+                cutNames.add(graph.nameOf(cuts[i]) + " -> " + graph.nameOf(cuts[i + 1]));
+            }
+            List<String> names = new ArrayList<>();
+            for (int id : ids) {
+                names.add(graph.nameOf(id));
+            }
+            Collections.sort(names);
+            boolean kept = reachability.isKept(names.get(0));
+            typeCycles.insertRow(ctx, new TypeCycles.Row(ids.length, kept, String.join(", ", names), cutNames.size(), String.join("; ", cutNames)));
+        }
+    }
+
+    private void reportPartitions(Accumulator acc, Reachability reachability, ExecutionContext ctx) {
+        TypeGraph graph = reachability.graph;
+        long[] membership = reachability.membership;
+        List<String> partitionNames = new ArrayList<>(entrypointPartitions.keySet());
+        // Leaves out the bit for entrypointTypes
+        long allPartitions = (1L << partitionNames.size()) - 1;
+        List<List<String>> keptByPartition = new ArrayList<>();
+        for (int i = 0; i < partitionNames.size(); i++) {
+            keptByPartition.add(new ArrayList<>());
+        }
+        for (int id = reachability.reachable.nextSetBit(0); id >= 0; id = reachability.reachable.nextSetBit(id + 1)) {
+            String type = graph.nameOf(id);
+            if (!acc.getTypeModels().containsKey(type)) {
+                // Only report types, not members
+                continue;
+            }
+            long bits = membership[id] & allPartitions;
+            List<String> partitions = new ArrayList<>();
+            for (int partition = 0; partition < partitionNames.size(); partition++) {
+                if ((bits & (1L << partition)) != 0) {
+                    partitions.add(partitionNames.get(partition));
+                    keptByPartition.get(partition).add(type);
+                }
+            }
+            String uniqueTo = partitions.size() == 1 ? partitions.get(0) : "";
+            typePartitions.insertRow(ctx, new TypePartitions.Row(type, String.join(", ", partitions), bits == allPartitions, uniqueTo));
+        }
+        if (partitionOutputDirectory != null) {
+            Path directory = Paths.get(partitionOutputDirectory);
+            try {
+                Files.createDirectories(directory);
+                for (int partition = 0; partition < partitionNames.size(); partition++) {
+                    Files.write(directory.resolve(partitionNames.get(partition) + ".txt"), keptByPartition.get(partition), StandardCharsets.UTF_8);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write partition output to " + directory, e);
+            }
+        }
+    }
+
+    private void reportImpact(Accumulator acc, Reachability reachability, ExecutionContext ctx) {
+        // Kept types, removed types, removed members, removed files and lines removed, for each package
+        Map<String, int[]> impact = new TreeMap<>();
+        Set<Path> keptSources = new HashSet<>();
+        Map<Path, String> sourcePackages = new HashMap<>();
+        for (TypeModel type : acc.getTypeModels().values()) {
+            String packageName = packageName(type.getName());
+            sourcePackages.put(type.getSourcePath(), packageName);
+            if (reachability.isKept(type.getName())) {
+                keptSources.add(type.getSourcePath());
+                impact.computeIfAbsent(packageName, ignore -> new int[5])[0]++;
+            } else {
+                impact.computeIfAbsent(packageName, ignore -> new int[5])[1]++;
+            }
+        }
+        for (Path typelessSource : acc.typelessSources) {
+            sourcePackages.put(typelessSource, "");
+        }
+        for (Map.Entry<Path, String> source : sourcePackages.entrySet()) {
+            if (!keptSources.contains(source.getKey())) {
+                int[] counts = impact.computeIfAbsent(source.getValue(), ignore -> new int[5]);
+                counts[3]++;
+                counts[4] += acc.sourceLines.getOrDefault(source.getKey(), 0);
+            }
+        }
+        for (TypeModel type : acc.getTypeModels().values()) {
+            int nested = type.getName().lastIndexOf('$');
+            // Only count the outermost removed type in a kept file, its lines include any nested types
+            if (keptSources.contains(type.getSourcePath()) && !reachability.isKept(type.getName())
+                    && (nested == -1 || reachability.isKept(type.getName().substring(0, nested)))) {
+                impact.get(packageName(type.getName()))[4] += type.getLines();
+            }
+        }
+        for (MemberModel member : acc.getMemberModels().values()) {
+            if (reachability.isKept(member.getOwner()) && !reachability.isKept(member.getName()) && isDeclared(member)) {
+                int[] counts = impact.get(packageName(member.getOwner()));
+                counts[2]++;
+                counts[4] += member.getLines();
+            }
+        }
+        for (Map.Entry<String, int[]> entry : impact.entrySet()) {
+            int[] counts = entry.getValue();
+            eliminationImpact.insertRow(ctx, new EliminationImpact.Row(entry.getKey(), counts[0], counts[1], counts[2], counts[3], counts[4]));
+        }
+    }
+
+    private static String packageName(String typeName) {
+        int lastDot = typeName.lastIndexOf('.');
+        return lastDot == -1 ? "" : typeName.substring(0, lastDot);
+    }
+
+    private static int lines(String source) {
+        int lines = 1;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private void reportKeptTypePaths(Accumulator acc, Reachability reachability, ExecutionContext ctx) {
+        TypeGraph graph = reachability.graph;
+        int[] parents = reachability.parents;
+        List<String> path = new ArrayList<>();
+        BitSet reachable = reachability.reachable;
+        for (int keptId = reachable.nextSetBit(0); keptId >= 0; keptId = reachable.nextSetBit(keptId + 1)) {
+            String type = graph.nameOf(keptId);
+            if (!acc.getTypeModels().containsKey(type)) {
+                // Only report types, not members
+                continue;
+            }
+            path.clear();
+            for (int id = keptId; id != TypeGraph.ROOT; id = parents[id]) {
+                path.add(graph.nameOf(id));
+            }
+            Collections.reverse(path);
+            keptTypePaths.insertRow(ctx, new KeptTypePaths.Row(type, path.get(0), path.size() - 1, String.join(" -> ", path)));
+        }
+    }
+
+    private Reachability computeReachability(Accumulator acc) {
         // Given the discovered map and the provided set of entrypoints, first work out the
         // reachable types, then visit to keep those types.
+        // When gutting, a type's bodies only count if something needs its code, so they are left out here
+        TypeGraph graph = buildGraph(acc, gutSignatureOnlyTypes ? ignoredEdgeKindMask | EdgeKind.BODY.mask() : ignoredEdgeKindMask);
+        int[] rootIds = roots(acc, graph, entrypointTypes);
+        BitSet reachable;
+        BitSet gutted = new BitSet();
+        int[] parents = null;
+        int[] components = null;
+        long[] membership = null;
+        if (minimumReportedCycleSize != null) {
+            components = graph.stronglyConnectedComponents();
+        }
+        if (!entrypointPartitions.isEmpty()) {
+            // Each partition is a bit, with entrypointTypes as one more unnamed partition after the named ones
+            int[][] rootsByPartition = new int[entrypointPartitions.size() + 1][];
+            int partition = 0;
+            for (Set<String> partitionEntrypoints : entrypointPartitions.values()) {
+                rootsByPartition[partition++] = roots(acc, graph, partitionEntrypoints);
+            }
+            rootsByPartition[partition] = rootIds;
+            membership = graph.partitionMembership(rootsByPartition);
+            reachable = new BitSet(graph.size());
+            for (int id = 0; id < membership.length; id++) {
+                if (membership[id] != 0) {
+                    reachable.set(id);
+                }
+            }
+            if (explainKeptTypes) {
+                parents = graph.shortestPathTree(Arrays.stream(rootsByPartition).flatMapToInt(Arrays::stream).toArray());
+            }
+        } else if (gutSignatureOnlyTypes) {
+            // Types whose code is needed are kept whole, and everything they mention is kept, gutted unless its
+            // own code is needed too. Both graphs have the same ids, since they have the same names.
+            BitSet whole = buildGraph(acc, ignoredEdgeKindMask | ~CODE_EDGE_KINDS).reachableFrom(rootIds);
+            reachable = graph.reachableFrom(whole.stream().toArray());
+            gutted.or(reachable);
+            gutted.andNot(whole);
+        } else if (explainKeptTypes) {
+            // A breadth first traversal is needed to find the shortest paths, it can't be done in parallel
+            parents = graph.shortestPathTree(rootIds);
+            reachable = new BitSet(graph.size());
+            for (int id = 0; id < parents.length; id++) {
+                if (parents[id] != TypeGraph.UNREACHABLE) {
+                    reachable.set(id);
+                }
+            }
+        } else if (components != null && !graph.hasConditionalEdges()) {
+            // Already have the components, so each cycle only needs to be expanded once
+            reachable = graph.reachableFromCondensed(components, rootIds);
+        } else {
+            reachable = graph.reachableFrom(rootIds);
+        }
+
+        // Only files that declare a removed type, refer to one from javadoc, or have no types at all can change
+        Set<Path> sourcesToVisit = new HashSet<>(acc.typelessSources);
+        for (int id = reachable.nextClearBit(0); id < graph.size(); id = reachable.nextClearBit(id + 1)) {
+            String removed = graph.nameOf(id);
+            TypeModel model = acc.getTypeModels().get(removed);
+            if (model == null) {
+                model = acc.getMemberModels().get(removed);
+            }
+            sourcesToVisit.add(model.getSourcePath());
+        }
+        for (int id = gutted.nextSetBit(0); id >= 0; id = gutted.nextSetBit(id + 1)) {
+            sourcesToVisit.add(acc.getTypeModels().get(graph.nameOf(id)).getSourcePath());
+        }
+        Reachability result = new Reachability(reachable, gutted, sourcesToVisit, graph, parents, components, membership);
+        for (Map.Entry<Path, Set<String>> entry : acc.javadocReferences.entrySet()) {
+            if (!sourcesToVisit.contains(entry.getKey()) && entry.getValue().stream().anyMatch(result::isRemoved)) {
+                sourcesToVisit.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds the graph streamed to a binary {@code graphExportFile} by an earlier run, and computes the types and
+     * members that are reachable from the given entrypoints, without parsing any sources.
+     *
+     * @param ignoredEdgeKinds names of {@link EdgeKind}s to leave out of the graph
+     */
+    public static Set<String> keepClosure(Path graphFile, Collection<String> entrypointTypes, Collection<String> ignoredEdgeKinds) {
+        Accumulator acc = new Accumulator();
+        GraphExport.read(graphFile, acc.new GraphLoader(graphFile));
+        TypeGraph graph = buildGraph(acc, EdgeKind.mask(ignoredEdgeKinds));
+        BitSet reachable = graph.reachableFrom(roots(acc, graph, entrypointTypes));
         Set<String> keep = new LinkedHashSet<>();
+        for (int id = reachable.nextSetBit(0); id >= 0; id = reachable.nextSetBit(id + 1)) {
+            keep.add(graph.nameOf(id));
+        }
+        return keep;
+    }
+
+    private static int[] roots(Accumulator acc, TypeGraph graph, Collection<String> entrypointTypes) {
+        Set<String> entrypoints = resolveEntrypoints(entrypointTypes, acc, graph);
+        List<Integer> roots = new ArrayList<>();
+        for (String entrypoint : entrypoints) {
+            roots.add(graph.idOf(entrypoint));
+        }
+        for (MemberModel member : acc.getMemberModels().values()) {
+            // The whole API of each entrypoint is kept
+            if (entrypoints.contains(member.getOwner())) {
+                roots.add(graph.idOf(member.getName()));
+            }
+        }
+        return roots.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Finds the scanned types named by the entrypoints. Exact names must exist, but a pattern may match nothing.
+     */
+    private static Set<String> resolveEntrypoints(Collection<String> entrypointTypes, Accumulator acc, TypeGraph graph) {
+        Set<String> entrypoints = new LinkedHashSet<>();
+        List<String> patterns = new ArrayList<>();
         for (String entrypointType : entrypointTypes) {
-            TypeModel typeModel = acc.get(entrypointType);
-            if (typeModel == null) {
+            if (TypePatternIndex.isPattern(entrypointType)) {
+                patterns.add(entrypointType);
+            } else if (graph.idOf(entrypointType) == -1) {
                 throw new IllegalStateException("Didn't find type " + entrypointType + " in the sources");
+            } else {
+                entrypoints.add(entrypointType);
             }
-            recordDependencies(acc, keep, Set.of(typeModel.type));
-            if (!keep.contains(typeModel.type.getFullyQualifiedName())) {
-                throw new IllegalStateException("Didn't actually keep " + entrypointType);
+        }
+        if (!patterns.isEmpty()) {
+            TypePatternIndex index = new TypePatternIndex();
+            // In id order rather than scan order, so that matches are reported in the same order every time
+            for (int id = 0; id < graph.size(); id++) {
+                TypeModel typeModel = acc.getTypeModels().get(graph.nameOf(id));
+                if (typeModel != null) {
+                    index.add(typeModel.getName(), id, typeModel.isPublic());
+                }
+            }
+            for (String pattern : patterns) {
+                index.match(pattern, id -> entrypoints.add(graph.nameOf(id)));
             }
         }
-        Set<String> remove = new LinkedHashSet<>(acc.keySet());
-        remove.removeAll(keep);
-        return new EliminateUnreachableTypesVisitor(keep, remove);
+        return entrypoints;
     }
 
-    private void recordDependencies(Map<String, TypeModel> acc, Set<String> keep, Set<JavaType.Class> types) {
-        recordDependencies(acc, keep, types, 0);
+    /**
+     * Assigns an id to each type we have sources for, and records edges only to other such types - dependencies on
+     * types we don't have sources for can't lead to anything we might prune.
+     * <p>
+     * Ids are assigned in sorted name order, since files may have been scanned in any order. Dependencies found
+     * only by ignored kinds of edge are left out. With a disk graph, the edges are read from its files, and only
+     * the nodes and the edges for overrides are built on the heap.
+     */
+    private static TypeGraph buildGraph(Accumulator acc, int ignoredEdgeKinds) {
+        List<TypeModel> types = sorted(acc.getTypeModels());
+        List<MemberModel> members = sorted(acc.getMemberModels());
+        TypeGraph.Builder builder = new TypeGraph.Builder();
+        for (TypeModel type : types) {
+            builder.addNode(type.getName());
+        }
+        for (MemberModel member : members) {
+            builder.addNode(member.getName());
+        }
+        if (acc.diskGraph == null) {
+            addEdges(builder, types, ignoredEdgeKinds);
+            addEdges(builder, members, ignoredEdgeKinds);
+        }
+
+        for (MemberModel member : members) {
+            int id = builder.idOf(member.getName());
+            // Calls dispatch to the override once its type is kept, or with rapid type analysis, once instantiated
+            int owner = builder.idOf(instantiationKey(member.getOwner()));
+            if (owner == -1) {
+                owner = builder.idOf(member.getOwner());
+            }
+            for (String overridden : member.getOverrides()) {
+                int target = builder.idOf(overridden);
+                if (target == -1) {
+                    // Overrides a method we don't have sources for, which could be called from anywhere
+                    builder.addEdge(owner, id);
+                } else {
+                    // The overridden method must exist for this to compile, and calls to it might dispatch here
+                    builder.addEdge(id, target);
+                    builder.addConditionalEdge(target, id, owner);
+                }
+            }
+        }
+        if (acc.diskGraph != null) {
+            // The dependencies were moved to disk as each file was scanned
+            return acc.diskGraph.build(builder, ignoredEdgeKinds);
+        }
+        return builder.build();
     }
-    private void recordDependencies(Map<String, TypeModel> acc, Set<String> keep, Set<JavaType.Class> types, int depth) {
-        for (JavaType.Class type : types) {
-            TypeModel typeModel = acc.get(type.getFullyQualifiedName());
-            if (typeModel != null && keep.add(type.getFullyQualifiedName())) {
-//                System.out.println("  ".repeat(depth) + type);
-                // If we have sources for this type and haven't already added it, add it and all its dependencies
-                recordDependencies(acc, keep, typeModel.getDependencies(), depth + 1);
+
+    private static <T extends TypeModel> List<T> sorted(Map<String, T> models) {
+        List<T> sorted = new ArrayList<>(models.values());
+        sorted.sort(Comparator.comparing(TypeModel::getName));
+        return sorted;
+    }
+
+    private static void addEdges(TypeGraph.Builder builder, Iterable<? extends TypeModel> models, int ignoredEdgeKinds) {
+        for (TypeModel model : models) {
+            int from = builder.idOf(model.getName());
+            for (Map.Entry<String, Integer> dependency : model.getDependencyKinds().entrySet()) {
+                int to = builder.idOf(dependency.getKey());
+                if (to != -1 && (dependency.getValue() & ~ignoredEdgeKinds) != 0) {
+                    builder.addEdge(from, to);
+                }
             }
         }
     }
 
+    private static String methodKey(String owner, String name, int arity) {
+        // Overloads are only told apart by their arity, since declarations and calls don't always agree on the
+        // parameter types of generic methods. Overloads with the same arity are kept or removed together.
+        return owner + "#" + name + "(" + arity + ")";
+    }
+
+    private static String methodKey(String owner, J.MethodDeclaration method) {
+        int arity = (int) method.getParameters().stream().filter(param -> !(param instanceof J.Empty)).count();
+        return methodKey(owner, method.isConstructor() ? "<constructor>" : method.getSimpleName(), arity);
+    }
+
+    private static String fieldKey(String owner, String name) {
+        return owner + "#" + name;
+    }
+
+    /**
+     * Names the node that is reachable when the given type, or any subtype, is instantiated.
+     */
+    private static String instantiationKey(String type) {
+        return fieldKey(type, "<new>");
+    }
+
+    /**
+     * Names the node for a method that the given type inherits from a superclass to implement one of its interfaces.
+     * It overrides the interface methods on behalf of the type, and depends on the inherited method.
+     */
+    private static String inheritedKey(String type, String implementation) {
+        return fieldKey(type, "<inherits>" + implementation);
+    }
+
+    /**
+     * Names nodes that stand for something other than a declared member, so aren't reported as removed code.
+     */
+    private static boolean isDeclared(MemberModel member) {
+        return !member.getName().equals(instantiationKey(member.getOwner()))
+                && !member.getName().startsWith(inheritedKey(member.getOwner(), ""));
+    }
+
+    /**
+     * State collected while scanning. Only type names and source paths are retained, not the LSTs or JavaType
+     * instances, so that each compilation unit can be collected once it has been scanned.
+     * <p>
+     * Each source file is scanned into its own models, which are only added here once the file is finished, so
+     * files may be scanned concurrently.
+     */
+    public static class Accumulator {
+        // Canonical instance of each type name, so that the same name referenced from many types is only held once
+        private final Map<String, String> names = new ConcurrentHashMap<>();
+        private final Map<String, TypeModel> typeModels = new ConcurrentHashMap<>();
+        // Methods, constructors and fields, only recorded when scanning at the member level
+        private final Map<String, MemberModel> memberModels = new ConcurrentHashMap<>();
+        // Types referenced from javadoc in each source file, only recorded when javadoc doesn't count as a dependency
+        private final Map<Path, Set<String>> javadocReferences = new ConcurrentHashMap<>();
+        // Source files that declare no types, and will be removed
+        private final Set<Path> typelessSources = ConcurrentHashMap.newKeySet();
+        // Lines in each source file, only recorded when reporting what would be removed
+        private final Map<Path, Integer> sourceLines = new ConcurrentHashMap<>();
+        // Result of the closure over the scanned types, computed once per cycle when scanning is finished
+        private Reachability reachability;
+        private boolean reportsWritten;
+        // Open while the first cycle is scanning, if the graph is being exported
+        private GraphExport.@Nullable GraphWriter graphWriter;
+        private boolean graphExported;
+        // Set if dependencies are moved out of the models and onto disk once each file is scanned
+        private @Nullable DiskGraph diskGraph;
+        // Direct subtypes of each type, only recorded with rapid type analysis, where they decide which unreachable
+        // overrides must stay for a kept type to compile
+        private final Map<String, Set<String>> subtypes = new ConcurrentHashMap<>();
+
+        public String intern(String name) {
+            if (diskGraph != null) {
+                // The disk graph's name table already holds one copy of every name, so there's no need for another
+                return diskGraph.intern(name);
+            }
+            String existing = names.putIfAbsent(name, name);
+            return existing == null ? name : existing;
+        }
+
+        public Map<String, TypeModel> getTypeModels() {
+            return typeModels;
+        }
+
+        public Map<String, MemberModel> getMemberModels() {
+            return memberModels;
+        }
+
+        private synchronized void invalidate() {
+            if (reachability != null && diskGraph != null) {
+                // A new cycle is scanning everything again
+                diskGraph.clear();
+            }
+            reachability = null;
+        }
+
+        /**
+         * Adds everything scanned from one source file.
+         */
+        private void merge(Path sourcePath, List<TypeModel> types, List<MemberModel> members, Set<String> javadocReferences) {
+            if (types.isEmpty()) {
+                typelessSources.add(sourcePath);
+            }
+            for (TypeModel type : types) {
+                typeModels.merge(type.getName(), type, Accumulator::firstDeclared);
+            }
+            for (MemberModel member : members) {
+                memberModels.merge(member.getName(), member, Accumulator::firstDeclared);
+            }
+            if (!javadocReferences.isEmpty()) {
+                this.javadocReferences.put(sourcePath, javadocReferences);
+            }
+        }
+
+        /**
+         * Picks between two source files that declare the same name, so that the result doesn't depend on which was
+         * scanned first: the first by path wins, and a file scanned again in a later cycle replaces its own models.
+         */
+        private static <T extends TypeModel> T firstDeclared(T existing, T added) {
+            return existing.getSourcePath().compareTo(added.getSourcePath()) < 0 ? existing : added;
+        }
+
+        /**
+         * Writes the types and members of one source file to the graph export, opening it on first use. Only the
+         * first cycle is exported, since later cycles scan the same graph less whatever was removed.
+         */
+        private synchronized void exportGraph(String graphExportFile, List<? extends TypeModel> models) {
+            if (graphExported) {
+                return;
+            }
+            if (graphWriter == null) {
+                graphWriter = GraphExport.open(Paths.get(graphExportFile));
+            }
+            for (TypeModel model : models) {
+                if (model instanceof MemberModel) {
+                    graphWriter.member(model.getName(), ((MemberModel) model).getOwner());
+                } else {
+                    graphWriter.type(model.getName(), model.isPublic());
+                }
+                for (Map.Entry<String, Integer> dependency : model.getDependencyKinds().entrySet()) {
+                    graphWriter.edge(model.getName(), dependency.getKey(), dependency.getValue());
+                }
+                if (model instanceof MemberModel) {
+                    for (String overridden : ((MemberModel) model).getOverrides()) {
+                        graphWriter.override(model.getName(), overridden);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Records the types scanned from one source file as subtypes of whatever they extend or implement. This
+         * must come before {@link #spill}, which takes the supertype edges away.
+         */
+        private void recordSubtypes(List<? extends TypeModel> models) {
+            for (TypeModel model : models) {
+                if (model instanceof MemberModel) {
+                    continue;
+                }
+                for (Map.Entry<String, Integer> dependency : model.getDependencyKinds().entrySet()) {
+                    if ((dependency.getValue() & EdgeKind.SUPERTYPE.mask()) != 0) {
+                        subtypes.computeIfAbsent(dependency.getKey(), ignore -> ConcurrentHashMap.newKeySet()).add(model.getName());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Moves the dependencies of the models scanned from one source file to disk, if there is a disk graph. This
+         * must come after anything else that reads the dependencies, such as the cache and the graph export.
+         */
+        private void spill(List<? extends TypeModel> models) {
+            if (diskGraph == null) {
+                return;
+            }
+            for (TypeModel model : models) {
+                diskGraph.append(model.getName(), model.getDependencyKinds());
+                model.releaseDependencies();
+            }
+        }
+
+        private synchronized void finishGraphExport() {
+            if (graphWriter == null) {
+                return;
+            }
+            Set<String> externalNames = new LinkedHashSet<>();
+            for (TypeModel model : typeModels.values()) {
+                addExternalNames(model.getDependencies(), externalNames);
+            }
+            for (MemberModel member : memberModels.values()) {
+                addExternalNames(member.getDependencies(), externalNames);
+                addExternalNames(member.getOverrides(), externalNames);
+            }
+            if (diskGraph != null) {
+                // The dependencies are no longer in the models, but every name they referred to is still known
+                addExternalNames(diskGraph.names(), externalNames);
+            }
+            graphWriter.finish(externalNames);
+            graphWriter = null;
+            graphExported = true;
+        }
+
+        private void addExternalNames(Collection<String> names, Set<String> externalNames) {
+            for (String name : names) {
+                if (!typeModels.containsKey(name) && !memberModels.containsKey(name)) {
+                    externalNames.add(name);
+                }
+            }
+        }
+
+        /**
+         * @return the types and members that were loaded
+         */
+        private List<TypeModel> load(Path sourcePath, DependencyCache.Entry entry) {
+            List<TypeModel> models = new ArrayList<>();
+            if (entry.getTypes().isEmpty()) {
+                typelessSources.add(sourcePath);
+            }
+            for (Map.Entry<String, Map<String, Integer>> type : entry.getTypes().entrySet()) {
+                TypeModel typeModel = new TypeModel(intern(type.getKey()), sourcePath, entry.getPublicTypes().contains(type.getKey()));
+                for (Map.Entry<String, Integer> dependency : type.getValue().entrySet()) {
+                    typeModel.addDependency(intern(dependency.getKey()), dependency.getValue());
+                }
+                typeModel.setLines(entry.getLines().getOrDefault(type.getKey(), 0));
+                typeModels.merge(typeModel.getName(), typeModel, Accumulator::firstDeclared);
+                models.add(typeModel);
+            }
+            for (Map.Entry<String, DependencyCache.Member> member : entry.getMembers().entrySet()) {
+                MemberModel memberModel = new MemberModel(intern(member.getKey()), intern(member.getValue().getOwner()), sourcePath);
+                for (Map.Entry<String, Integer> dependency : member.getValue().getDependencies().entrySet()) {
+                    memberModel.addDependency(intern(dependency.getKey()), dependency.getValue());
+                }
+                for (String overridden : member.getValue().getOverrides()) {
+                    memberModel.getOverrides().add(intern(overridden));
+                }
+                memberModel.setLines(entry.getLines().getOrDefault(member.getKey(), 0));
+                memberModels.merge(memberModel.getName(), memberModel, Accumulator::firstDeclared);
+                models.add(memberModel);
+            }
+            if (entry.getSourceLines() > 0) {
+                sourceLines.put(sourcePath, entry.getSourceLines());
+            }
+            if (!entry.getJavadocReferences().isEmpty()) {
+                Set<String> references = new HashSet<>();
+                for (String reference : entry.getJavadocReferences()) {
+                    references.add(intern(reference));
+                }
+                javadocReferences.put(sourcePath, references);
+            }
+            return models;
+        }
+
+        /**
+         * Rebuilds the models from an exported graph. There are no sources, so each model's source path is the
+         * graph file itself.
+         */
+        private class GraphLoader implements GraphExport.Listener {
+            private final Path graphFile;
+
+            private GraphLoader(Path graphFile) {
+                this.graphFile = graphFile;
+            }
+
+            @Override
+            public void type(String name, boolean isPublic) {
+                typeModels.put(intern(name), new TypeModel(intern(name), graphFile, isPublic));
+            }
+
+            @Override
+            public void member(String name, String owner) {
+                memberModels.put(intern(name), new MemberModel(intern(name), intern(owner), graphFile));
+            }
+
+            @Override
+            public void edge(String from, String to, int kinds) {
+                TypeModel model = typeModels.get(from);
+                if (model == null) {
+                    model = memberModels.get(from);
+                }
+                model.addDependency(intern(to), kinds);
+            }
+
+            @Override
+            public void override(String member, String overridden) {
+                memberModels.get(member).getOverrides().add(intern(overridden));
+            }
+        }
+    }
+
+    /**
+     * Which nodes of the graph are kept, as a bit for each id. A name is removed if it is in the graph but its bit
+     * is clear, so no set of names is built for either side.
+     */
+    private static class Reachability {
+        private final BitSet reachable;
+        // Kept nodes whose code isn't needed, only set when gutting types that are only needed by signatures
+        private final BitSet gutted;
+        private final Set<Path> sourcesToVisit;
+        private final TypeGraph graph;
+        // Parent of each node in the shortest path tree, only computed when explaining kept types
+        private final int @Nullable [] parents;
+        // Strongly connected component of each node, only computed when reporting cycles
+        private final int @Nullable [] components;
+        // A bit for each entrypoint partition that reaches each node, only computed when there are partitions
+        private final long @Nullable [] membership;
+
+        private Reachability(BitSet reachable, BitSet gutted, Set<Path> sourcesToVisit, TypeGraph graph, int @Nullable [] parents, int @Nullable [] components, long @Nullable [] membership) {
+            this.reachable = reachable;
+            this.gutted = gutted;
+            this.sourcesToVisit = sourcesToVisit;
+            this.graph = graph;
+            this.parents = parents;
+            this.components = components;
+            this.membership = membership;
+        }
+
+        private boolean isKept(String name) {
+            int id = graph.idOf(name);
+            return id != -1 && reachable.get(id);
+        }
+
+        private boolean isRemoved(String name) {
+            int id = graph.idOf(name);
+            return id != -1 && !reachable.get(id);
+        }
+    }
+
     public static class TypeModel {
-        // The compilation unit that the type appears in - if null, it is from a dependency, and we can't prune it.
-        private J.CompilationUnit compilationUnit;
-        // The type itself that this represents
-        private final JavaType.Class type;
-        // Types that this type depends on
-        private final Set<JavaType.Class> dependencies = new HashSet<>();
+        // The fully qualified name of the type that this represents
+        private final String name;
+        // The source file that declares this type
+        private final Path sourcePath;
+        // True if declared public, so that public API can be selected by pattern
+        private final boolean isPublic;
+        // Names of types that this type depends on, each with a mask of the EdgeKinds it was found by
+        private Map<String, Integer> dependencies = new HashMap<>();
+        // Lines in the declaration, only recorded when reporting what would be removed
+        private int lines;
 
-        public TypeModel(JavaType.Class type) {
-            this.type = type;
+        public TypeModel(String name, Path sourcePath, boolean isPublic) {
+            this.name = name;
+            this.sourcePath = sourcePath;
+            this.isPublic = isPublic;
         }
 
-        public void addDependency(JavaType.Class dependency) {
-            dependencies.add(dependency);
+        public String getName() {
+            return name;
         }
-        public Set<JavaType.Class> getDependencies() {
+
+        public Path getSourcePath() {
+            return sourcePath;
+        }
+
+        public boolean isPublic() {
+            return isPublic;
+        }
+
+        /**
+         * Adds a dependency that is part of this declaration's structure, and can't be ignored.
+         */
+        public void addDependency(String dependency) {
+            addDependency(dependency, EdgeKind.DECLARATION.mask());
+        }
+
+        public void addDependency(String dependency, EdgeKind kind) {
+            addDependency(dependency, kind.mask());
+        }
+
+        public void addDependency(String dependency, int kinds) {
+            dependencies.merge(dependency, kinds, (existing, added) -> existing | added);
+        }
+
+        public Set<String> getDependencies() {
+            return dependencies.keySet();
+        }
+
+        public Map<String, Integer> getDependencyKinds() {
             return dependencies;
         }
+
+        /**
+         * Drops the dependencies once they have been moved elsewhere. The map is replaced rather than cleared, since
+         * a cleared map keeps its table at the largest size it reached.
+         */
+        public void releaseDependencies() {
+            dependencies = new HashMap<>();
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        public void setLines(int lines) {
+            this.lines = lines;
+        }
     }
 
+    /**
+     * A method, constructor or field, named by its owner type, its name, and for methods, its arity.
+     */
+    public static class MemberModel extends TypeModel {
+        // The type that declares this member
+        private final String owner;
+        // Methods that this method overrides
+        private final Set<String> overrides = new HashSet<>();
+
+        public MemberModel(String name, String owner, Path sourcePath) {
+            super(name, sourcePath, false);
+            this.owner = owner;
+            addDependency(owner);
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public Set<String> getOverrides() {
+            return overrides;
+        }
+    }
+
+    /**
+     * Scans a single source file. The state here is only for the file being scanned, and a new instance is used
+     * for each file.
+     */
     public class ScanAllDependencies extends JavaIsoVisitor<ExecutionContext> {
-        private final Map<String, TypeModel> typeModels;
+        private final Accumulator acc;
+        private Path sourcePath;
         private TypeModel currentTypeModel;
-        private final Set<TypeModel> inCompilationUnit = new HashSet<>();
+        // The member being scanned, or the current type if not in a member
+        private TypeModel currentNode;
+        // Declarations directly in the body of the current type, which are tracked as members
+        private Set<Statement> classMembers = Collections.emptySet();
+        private Set<String> javadocReferences;
+        private List<TypeModel> typesInCompilationUnit;
+        private List<MemberModel> membersInCompilationUnit;
+        // The same JavaType instances are shared by many nodes in a file, so each is resolved to its raw type name
+        // once, and the node it was last recorded for is remembered so that repeats within a node are skipped
+        private final Map<JavaType, String> rawNames = new IdentityHashMap<>();
+        private final Map<JavaType, TypeModel> lastRecordedFor = new IdentityHashMap<>();
+        private final Map<JavaType, EdgeKind> lastRecordedKind = new IdentityHashMap<>();
+        // Fields of each type in the file whose initializers are kept when the type is gutted
+        private final Map<J.ClassDeclaration, Set<String>> keptInitializers = new IdentityHashMap<>();
+        // The kind of dependency that types found right now are recorded as. Anything inside a body stays a body
+        // dependency, even if it is a signature or field of a local or anonymous type.
+        private EdgeKind kind = EdgeKind.SIGNATURE;
 
-        public ScanAllDependencies(Map<String, TypeModel> typeModels) {
-            this.typeModels = typeModels;
+        public ScanAllDependencies(Accumulator acc) {
+            this.acc = acc;
         }
 
         @Override
         protected JavadocVisitor<ExecutionContext> getJavadocVisitor() {
             if (checkDocumentation) {
-                return super.getJavadocVisitor();
+                return new JavadocVisitor<>(this) {
+                    @Override
+                    public Javadoc visitDocComment(Javadoc.DocComment javadoc, ExecutionContext executionContext) {
+                        EdgeKind prevKind = kind;
+                        kind = EdgeKind.JAVADOC;
+                        Javadoc docComment = super.visitDocComment(javadoc, executionContext);
+                        kind = prevKind;
+                        return docComment;
+                    }
+                };
             }
 
-            return new JavadocVisitor<>(new JavaVisitor<>()) {
+            // Record what javadoc refers to, so we can tell which files will need references rewritten
+            return new JavadocVisitor<>(new JavaVisitor<>() {
+                @Override
+                public @Nullable JavaType visitType(@Nullable JavaType javaType, ExecutionContext executionContext) {
+                    recordJavadocReference(javaType);
+                    return super.visitType(javaType, executionContext);
+                }
+            }) {
                 @Override
                 public Javadoc visitReference(Javadoc.Reference reference, ExecutionContext executionContext) {
                     return super.visitReference(reference, executionContext);
@@ -145,24 +1167,510 @@ public class EliminateUnreachableTypes extends ScanningRecipe<Map<String, Elimin
 
         @Override
         public J.CompilationUnit visitCompilationUnit(J.CompilationUnit cu, ExecutionContext executionContext) {
-            assert inCompilationUnit.isEmpty();
+            acc.invalidate();
+            sourcePath = cu.getSourcePath();
+            byte[] contentHash = null;
+            if (dependencyCache != null) {
+                contentHash = contentHash(cu);
+                DependencyCache.Entry cached = dependencyCache.read(sourcePath, contentHash);
+                if (cached != null) {
+                    List<TypeModel> models = acc.load(sourcePath, cached);
+                    if (graphExportFile != null) {
+                        acc.exportGraph(graphExportFile, models);
+                    }
+                    if (rapidTypeAnalysis) {
+                        acc.recordSubtypes(models);
+                    }
+                    acc.spill(models);
+                    return cu;
+                }
+            }
+
+            javadocReferences = new HashSet<>();
+            typesInCompilationUnit = new ArrayList<>();
+            membersInCompilationUnit = new ArrayList<>();
+            int sourceLines = 0;
+            if (reportOnly) {
+                sourceLines = lines(cu.printAll());
+                acc.sourceLines.put(sourcePath, sourceLines);
+            }
             J.CompilationUnit compilationUnit = super.visitCompilationUnit(cu, executionContext);
-            for (TypeModel typeModel : inCompilationUnit) {
-                typeModel.compilationUnit = compilationUnit;
+            acc.merge(sourcePath, typesInCompilationUnit, membersInCompilationUnit, javadocReferences);
+            if (dependencyCache != null) {
+                DependencyCache.Entry entry = new DependencyCache.Entry();
+                for (TypeModel typeModel : typesInCompilationUnit) {
+                    entry.getTypes().put(typeModel.getName(), typeModel.getDependencyKinds());
+                    if (typeModel.isPublic()) {
+                        entry.getPublicTypes().add(typeModel.getName());
+                    }
+                    if (typeModel.getLines() > 0) {
+                        entry.getLines().put(typeModel.getName(), typeModel.getLines());
+                    }
+                }
+                for (MemberModel member : membersInCompilationUnit) {
+                    entry.getMembers().put(member.getName(), new DependencyCache.Member(member.getOwner(), member.getDependencyKinds(), member.getOverrides()));
+                    if (member.getLines() > 0) {
+                        entry.getLines().put(member.getName(), member.getLines());
+                    }
+                }
+                entry.setSourceLines(sourceLines);
+                entry.getJavadocReferences().addAll(javadocReferences);
+                dependencyCache.write(sourcePath, contentHash, entry);
+            }
+            if (graphExportFile != null) {
+                acc.exportGraph(graphExportFile, typesInCompilationUnit);
+                acc.exportGraph(graphExportFile, membersInCompilationUnit);
             }
-            inCompilationUnit.clear();
+            if (rapidTypeAnalysis) {
+                acc.recordSubtypes(typesInCompilationUnit);
+            }
+            acc.spill(typesInCompilationUnit);
+            acc.spill(membersInCompilationUnit);
+            javadocReferences = null;
+            typesInCompilationUnit = null;
+            membersInCompilationUnit = null;
             return compilationUnit;
         }
 
+        /**
+         * Hashes the source as it is now, along with what the scan resolves from other files: the type each name
+         * refers to, the supertypes and methods of those types, which decide override and functional interface
+         * edges, and the owners of the methods and fields used. Changing any of those in another file changes the
+         * edges of this one, even though its source is the same. The checksum recorded when the file was parsed
+         * can't be used, since earlier recipes, or an earlier cycle of this one, may have changed the tree without
+         * updating it.
+         */
+        private byte[] contentHash(J.CompilationUnit cu) {
+            Set<String> resolved = new TreeSet<>();
+            Set<String> described = new HashSet<>();
+            for (JavaType type : cu.getTypesInUse().getTypesInUse()) {
+                raw(type).ifPresent(rawType -> describeSupertypes(rawType, described, resolved));
+            }
+            for (J.ClassDeclaration classDecl : cu.getClasses()) {
+                describeDeclaredTypes(classDecl, described, resolved);
+            }
+            for (JavaType.Method method : cu.getTypesInUse().getUsedMethods()) {
+                resolved.add("call " + methodKey(method.getDeclaringType().getFullyQualifiedName(), method.getName(), method.getParameterTypes().size()));
+            }
+            for (JavaType.Variable variable : cu.getTypesInUse().getVariables()) {
+                raw(variable.getOwner()).ifPresent(owner -> resolved.add("field " + fieldKey(owner.getFullyQualifiedName(), variable.getName())));
+            }
+            StringBuilder content = new StringBuilder(cu.printAll());
+            for (String line : resolved) {
+                content.append('\n').append(line);
+            }
+            return DependencyCache.sha256(content.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void describeDeclaredTypes(J.ClassDeclaration classDecl, Set<String> described, Set<String> resolved) {
+            if (classDecl.getType() != null) {
+                describeSupertypes(classDecl.getType(), described, resolved);
+            }
+            for (Statement statement : classDecl.getBody().getStatements()) {
+                if (statement instanceof J.ClassDeclaration) {
+                    describeDeclaredTypes((J.ClassDeclaration) statement, described, resolved);
+                }
+            }
+        }
+
+        private void describeSupertypes(JavaType.FullyQualified type, Set<String> described, Set<String> resolved) {
+            for (JavaType.FullyQualified supertype : supertypes(type)) {
+                String name = supertype.getFullyQualifiedName();
+                if (!described.add(name)) {
+                    continue;
+                }
+                StringBuilder line = new StringBuilder("type ").append(name).append(' ').append(supertype.getKind());
+                if (supertype.getSupertype() != null) {
+                    line.append(" extends ").append(supertype.getSupertype().getFullyQualifiedName());
+                }
+                for (JavaType.FullyQualified iface : supertype.getInterfaces()) {
+                    line.append(" implements ").append(iface.getFullyQualifiedName());
+                }
+                resolved.add(line.toString());
+                for (JavaType.Method method : supertype.getMethods()) {
+                    resolved.add("method " + methodKey(name, method.getName(), method.getParameterTypes().size()) + " " + method.getFlagsBitMap());
+                }
+            }
+        }
+
+        private void recordJavadocReference(@Nullable JavaType javaType) {
+            // Matches what EliminatedPrunedJavadocRefsVisitor checks when deciding to prune a reference
+            if (javaType instanceof JavaType.Method) {
+                recordJavadocReference(((JavaType.Method) javaType).getReturnType());
+                for (JavaType param : ((JavaType.Method) javaType).getParameterTypes()) {
+                    recordJavadocReference(param);
+                }
+            } else if (javaType instanceof JavaType.Variable) {
+                recordJavadocReference(((JavaType.Variable) javaType).getType());
+            } else if (javaType instanceof JavaType.Array) {
+                recordJavadocReference(((JavaType.Array) javaType).getElemType());
+            } else {
+                raw(javaType).ifPresent(type -> javadocReferences.add(acc.intern(type.getFullyQualifiedName())));
+            }
+        }
+
         @Override
         public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, ExecutionContext executionContext) {
             TypeModel prev = currentTypeModel;
-            currentTypeModel = new TypeModel(raw(classDecl.getType()).get());
-            inCompilationUnit.add(currentTypeModel);
-            typeModels.put(classDecl.getType().getFullyQualifiedName(), currentTypeModel);
-            J.ClassDeclaration classDeclaration = super.visitClassDeclaration(classDecl, executionContext);
+            TypeModel prevNode = currentNode;
+            Set<Statement> prevMembers = classMembers;
+            String name = acc.intern(classDecl.getType().getFullyQualifiedName());
+            currentTypeModel = new TypeModel(name, sourcePath, classDecl.hasModifier(J.Modifier.Type.Public));
+            currentNode = currentTypeModel;
+            if (reportOnly) {
+                currentTypeModel.setLines(lines(classDecl.printTrimmed(getCursor().getParentOrThrow())));
+            }
+            typesInCompilationUnit.add(currentTypeModel);
+            if (memberLevel) {
+                if (prev != null) {
+                    // A nested type can't be kept without the type that encloses it
+                    currentTypeModel.addDependency(prev.getName());
+                }
+                // Annotation members are left with the type, since uses of the annotation may set any of them
+                classMembers = Collections.newSetFromMap(new IdentityHashMap<>());
+                if (classDecl.getKind() != J.ClassDeclaration.Kind.Type.Annotation) {
+                    classMembers.addAll(classDecl.getBody().getStatements());
+                }
+                if (classDecl.getKind() != J.ClassDeclaration.Kind.Type.Interface && classDecl.getKind() != J.ClassDeclaration.Kind.Type.Annotation) {
+                    // Calls to this type's interface methods may dispatch to a method inherited from a superclass,
+                    // which must then be kept as if this type overrode it
+                    for (Map.Entry<String, Set<String>> inherited : inheritedImplementations(classDecl.getType()).entrySet()) {
+                        MemberModel member = addMember(inheritedKey(name, inherited.getKey()));
+                        member.addDependency(acc.intern(inherited.getKey()));
+                        for (String implemented : inherited.getValue()) {
+                            member.getOverrides().add(acc.intern(implemented));
+                        }
+                    }
+                }
+            }
+            if (rapidTypeAnalysis && classDecl.getKind() != J.ClassDeclaration.Kind.Type.Annotation) {
+                MemberModel instantiation = addMember(instantiationKey(name));
+                JavaType.FullyQualified type = classDecl.getType();
+                if (type.getSupertype() != null) {
+                    instantiation.addDependency(acc.intern(instantiationKey(type.getSupertype().getFullyQualifiedName())));
+                }
+                for (JavaType.FullyQualified iface : type.getInterfaces()) {
+                    instantiation.addDependency(acc.intern(instantiationKey(iface.getFullyQualifiedName())));
+                }
+                if (classDecl.getKind() == J.ClassDeclaration.Kind.Type.Enum) {
+                    // Each constant is an instance
+                    currentTypeModel.addDependency(instantiation.getName());
+                }
+            }
+            EdgeKind prevKind = kind;
+            if (!inBody()) {
+                kind = EdgeKind.SUPERTYPE;
+            }
+            visit(classDecl.getExtends(), executionContext);
+            if (classDecl.getImplements() != null) {
+                for (TypeTree implemented : classDecl.getImplements()) {
+                    visit(implemented, executionContext);
+                }
+            }
+            if (!inBody()) {
+                kind = EdgeKind.SIGNATURE;
+            }
+            // Supertypes were already visited, the scanner's result is discarded so the original is returned
+            super.visitClassDeclaration(classDecl.withExtends(null).withImplements(null), executionContext);
+            kind = prevKind;
             currentTypeModel = prev;
-            return classDeclaration;
+            currentNode = prevNode;
+            classMembers = prevMembers;
+            return classDecl;
+        }
+
+        @Override
+        public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, ExecutionContext executionContext) {
+            if (!memberLevel) {
+                return scanMethod(method, executionContext);
+            }
+            Set<String> overrides = overriddenMethods(method.getMethodType());
+            if (!classMembers.contains(method)) {
+                // Part of an anonymous class, so it belongs to the enclosing member, but the methods it overrides
+                // must still exist
+                overrides.forEach(this::addDependency);
+                return scanMethod(method, executionContext);
+            }
+            MemberModel member = addMember(methodKey(currentTypeModel.getName(), method));
+            member.getOverrides().addAll(overrides);
+            if (reportOnly) {
+                member.setLines(lines(method.printTrimmed(getCursor().getParentOrThrow())));
+            }
+            if (method.isConstructor()) {
+                currentTypeModel.addDependency(member.getName());
+            }
+            TypeModel prev = currentNode;
+            if (rapidTypeAnalysis && !overrides.isEmpty()) {
+                // If the type isn't instantiated, this override may be gutted rather than removed, so the types in
+                // its signature are needed by the type itself
+                currentNode = currentTypeModel;
+                EdgeKind prevKind = kind;
+                for (J.Annotation annotation : method.getLeadingAnnotations()) {
+                    visit(annotation, executionContext);
+                }
+                kind = EdgeKind.SIGNATURE;
+                visit(method.getReturnTypeExpression(), executionContext);
+                for (Statement parameter : method.getParameters()) {
+                    visit(parameter, executionContext);
+                }
+                kind = EdgeKind.THROWS;
+                if (method.getThrows() != null) {
+                    for (NameTree thrown : method.getThrows()) {
+                        visit(thrown, executionContext);
+                    }
+                }
+                kind = prevKind;
+            }
+            currentNode = member;
+            J.MethodDeclaration methodDeclaration = scanMethod(method, executionContext);
+            currentNode = prev;
+            return methodDeclaration;
+        }
+
+        /**
+         * Visits a method with its throws clause as throws dependencies, and the rest of its declaration as
+         * signature dependencies, unless it is already inside a body.
+         */
+        private J.MethodDeclaration scanMethod(J.MethodDeclaration method, ExecutionContext executionContext) {
+            EdgeKind prevKind = kind;
+            if (method.getThrows() != null) {
+                if (!inBody()) {
+                    kind = EdgeKind.THROWS;
+                }
+                for (NameTree thrown : method.getThrows()) {
+                    visit(thrown, executionContext);
+                }
+            }
+            if (!inBody()) {
+                kind = EdgeKind.SIGNATURE;
+            }
+            // The throws clause was already visited, the scanner's result is discarded so the original is returned
+            super.visitMethodDeclaration(method.withThrows(null), executionContext);
+            kind = prevKind;
+            return method;
+        }
+
+        @Override
+        public J.VariableDeclarations visitVariableDeclarations(J.VariableDeclarations multiVariable, ExecutionContext executionContext) {
+            if (!inBody() && getCursor().getParentTreeCursor().getParentTreeCursor().getValue() instanceof J.ClassDeclaration) {
+                EdgeKind prevKind = kind;
+                kind = EdgeKind.FIELD;
+                J.VariableDeclarations variableDeclarations = scanVariableDeclarations(multiVariable, executionContext);
+                kind = prevKind;
+                return variableDeclarations;
+            }
+            return scanVariableDeclarations(multiVariable, executionContext);
+        }
+
+        private J.VariableDeclarations scanVariableDeclarations(J.VariableDeclarations multiVariable, ExecutionContext executionContext) {
+            if (!memberLevel || !classMembers.contains(multiVariable)) {
+                return super.visitVariableDeclarations(multiVariable, executionContext);
+            }
+            // Fields declared together are kept or removed together
+            List<MemberModel> fields = new ArrayList<>();
+            for (J.VariableDeclarations.NamedVariable variable : multiVariable.getVariables()) {
+                fields.add(addMember(fieldKey(currentTypeModel.getName(), variable.getSimpleName())));
+            }
+            if (reportOnly) {
+                // Counted once for the whole declaration
+                fields.get(0).setLines(lines(multiVariable.printTrimmed(getCursor().getParentOrThrow())));
+            }
+            for (MemberModel field : fields) {
+                for (MemberModel other : fields) {
+                    if (field != other) {
+                        field.addDependency(other.getName());
+                    }
+                }
+            }
+            TypeModel prev = currentNode;
+            currentNode = fields.get(0);
+            J.VariableDeclarations variableDeclarations = super.visitVariableDeclarations(multiVariable, executionContext);
+            currentNode = prev;
+            return variableDeclarations;
+        }
+
+        @Override
+        public J.VariableDeclarations.NamedVariable visitVariable(J.VariableDeclarations.NamedVariable variable, ExecutionContext executionContext) {
+            if (kind != EdgeKind.FIELD || variable.getInitializer() == null) {
+                return super.visitVariable(variable, executionContext);
+            }
+            // A field's initializer is part of the body of its type, unless gutting keeps it, as it does for constants
+            J.ClassDeclaration owner = getCursor().firstEnclosingOrThrow(J.ClassDeclaration.class);
+            kind = keptInitializers.computeIfAbsent(owner, ClassGutter::keptInitializers).contains(variable.getSimpleName()) ? EdgeKind.INITIALIZER : EdgeKind.BODY;
+            visit(variable.getInitializer(), executionContext);
+            kind = EdgeKind.FIELD;
+            super.visitVariable(variable.withInitializer(null), executionContext);
+            return variable;
+        }
+
+        @Override
+        public J.Block visitBlock(J.Block block, ExecutionContext executionContext) {
+            if (getCursor().getParentTreeCursor().getValue() instanceof J.ClassDeclaration) {
+                // The body of a type, its members decide their own kinds
+                return super.visitBlock(block, executionContext);
+            }
+            // Method, lambda and initializer bodies, and anonymous class bodies, unless inside code that is kept
+            // when gutted
+            EdgeKind prevKind = kind;
+            if (kind != EdgeKind.INITIALIZER) {
+                kind = EdgeKind.BODY;
+            }
+            J.Block result = super.visitBlock(block, executionContext);
+            kind = prevKind;
+            return result;
+        }
+
+        @Override
+        public J.EnumValue visitEnumValue(J.EnumValue enumValue, ExecutionContext executionContext) {
+            // Like a final field's initializer, constructor arguments and constant bodies are kept when gutted
+            EdgeKind prevKind = kind;
+            if (!inBody()) {
+                kind = EdgeKind.INITIALIZER;
+            }
+            J.EnumValue result = super.visitEnumValue(enumValue, executionContext);
+            kind = prevKind;
+            return result;
+        }
+
+        @Override
+        public J.Annotation visitAnnotation(J.Annotation annotation, ExecutionContext executionContext) {
+            EdgeKind prevKind = kind;
+            kind = EdgeKind.ANNOTATION;
+            J.Annotation result = super.visitAnnotation(annotation, executionContext);
+            kind = prevKind;
+            return result;
+        }
+
+        private void addDependency(String dependency) {
+            currentNode.addDependency(dependency, kind);
+        }
+
+        private boolean inBody() {
+            return kind == EdgeKind.BODY || kind == EdgeKind.INITIALIZER;
+        }
+
+        private MemberModel addMember(String key) {
+            MemberModel member = new MemberModel(acc.intern(key), currentTypeModel.getName(), sourcePath);
+            membersInCompilationUnit.add(member);
+            return member;
+        }
+
+        @Override
+        public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, ExecutionContext executionContext) {
+            if (memberLevel) {
+                addMethodDependency(method.getMethodType());
+            }
+            if (kind == EdgeKind.BODY && ClassGutter.isConstructorCall(method) && getCursor().getParentTreeCursor().getParentTreeCursor().getValue() instanceof J.MethodDeclaration) {
+                // Starts a constructor, so it is kept when the rest of the constructor is gutted
+                kind = EdgeKind.INITIALIZER;
+                J.MethodInvocation result = super.visitMethodInvocation(method, executionContext);
+                kind = EdgeKind.BODY;
+                return result;
+            }
+            return super.visitMethodInvocation(method, executionContext);
+        }
+
+        @Override
+        public J.NewClass visitNewClass(J.NewClass newClass, ExecutionContext executionContext) {
+            if (memberLevel) {
+                addMethodDependency(newClass.getConstructorType());
+            }
+            if (rapidTypeAnalysis) {
+                // An anonymous class instantiates the type it extends or implements
+                addInstantiationDependency(newClass.getClazz() != null ? newClass.getClazz().getType() : newClass.getType());
+            }
+            return super.visitNewClass(newClass, executionContext);
+        }
+
+        @Override
+        public J.MemberReference visitMemberReference(J.MemberReference memberRef, ExecutionContext executionContext) {
+            if (memberLevel) {
+                addMethodDependency(memberRef.getMethodType());
+                addFieldDependency(memberRef.getVariableType());
+                addFunctionalInterfaceDependencies(memberRef.getType());
+            }
+            if (rapidTypeAnalysis && memberRef.getMethodType() != null && memberRef.getMethodType().isConstructor()) {
+                addInstantiationDependency(memberRef.getMethodType().getDeclaringType());
+            }
+            return super.visitMemberReference(memberRef, executionContext);
+        }
+
+        @Override
+        public J.Lambda visitLambda(J.Lambda lambda, ExecutionContext executionContext) {
+            if (memberLevel) {
+                addFunctionalInterfaceDependencies(lambda.getType());
+            }
+            return super.visitLambda(lambda, executionContext);
+        }
+
+        @Override
+        public J.Identifier visitIdentifier(J.Identifier identifier, ExecutionContext executionContext) {
+            if (memberLevel) {
+                addFieldDependency(identifier.getFieldType());
+            }
+            return super.visitIdentifier(identifier, executionContext);
+        }
+
+        private void addMethodDependency(JavaType.@Nullable Method method) {
+            if (method != null) {
+                addDependency(acc.intern(methodKey(method.getDeclaringType().getFullyQualifiedName(), method.getName(), method.getParameterTypes().size())));
+            }
+        }
+
+        private void addInstantiationDependency(@Nullable JavaType type) {
+            raw(type).ifPresent(instantiated -> addDependency(acc.intern(instantiationKey(instantiated.getFullyQualifiedName()))));
+        }
+
+        private void addFieldDependency(JavaType.@Nullable Variable variable) {
+            if (variable != null) {
+                // Local variables are owned by a method rather than a type, and are skipped
+                raw(variable.getOwner()).ifPresent(owner -> addDependency(acc.intern(fieldKey(owner.getFullyQualifiedName(), variable.getName()))));
+            }
+        }
+
+        /**
+         * A lambda or method reference implements the abstract methods of its interface, even though nothing in
+         * our sources may call them.
+         */
+        private void addFunctionalInterfaceDependencies(@Nullable JavaType type) {
+            if (rapidTypeAnalysis) {
+                addInstantiationDependency(type);
+            }
+            raw(type).ifPresent(functionalInterface -> {
+                for (JavaType.FullyQualified iface : supertypes(functionalInterface)) {
+                    if (iface.getKind() != JavaType.FullyQualified.Kind.Interface) {
+                        continue;
+                    }
+                    for (JavaType.Method method : iface.getMethods()) {
+                        if (!method.hasFlags(Flag.Default) && !method.hasFlags(Flag.Static)) {
+                            addMethodDependency(method);
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Finds the keys of all methods in supertypes that the given method overrides.
+         */
+        private Set<String> overriddenMethods(JavaType.@Nullable Method method) {
+            Set<String> overrides = new HashSet<>();
+            if (method == null || method.isConstructor() || method.hasFlags(Flag.Static) || method.hasFlags(Flag.Private)) {
+                return overrides;
+            }
+            int arity = method.getParameterTypes().size();
+            for (JavaType.FullyQualified supertype : supertypes(method.getDeclaringType())) {
+                if (supertype.getFullyQualifiedName().equals(method.getDeclaringType().getFullyQualifiedName())) {
+                    continue;
+                }
+                for (JavaType.Method candidate : supertype.getMethods()) {
+                    if (candidate.getName().equals(method.getName()) && candidate.getParameterTypes().size() == arity
+                            && !candidate.hasFlags(Flag.Static) && !candidate.hasFlags(Flag.Private)) {
+                        overrides.add(acc.intern(methodKey(supertype.getFullyQualifiedName(), candidate.getName(), arity)));
+                    }
+                }
+            }
+            return overrides;
         }
         @Override
         public J.Import visitImport(J.Import _import, ExecutionContext p) {
@@ -178,7 +1686,18 @@ public class EliminateUnreachableTypes extends ScanningRecipe<Map<String, Elimin
 
         @Override
         public @Nullable JavaType visitType(@Nullable JavaType javaType, ExecutionContext p) {
-            raw(javaType).ifPresent(currentTypeModel::addDependency);
+            if (javaType == null) {
+                return null;
+            }
+            TypeModel lastNode = lastRecordedFor.put(javaType, currentNode);
+            EdgeKind lastKind = lastRecordedKind.put(javaType, kind);
+            if (lastNode == currentNode && lastKind == kind) {
+                return javaType;
+            }
+            String rawName = rawNames.computeIfAbsent(javaType, type -> raw(type).map(r -> acc.intern(r.getFullyQualifiedName())).orElse(""));
+            if (!rawName.isEmpty() && currentNode != null) {
+                addDependency(rawName);
+            }
 
             return super.visitType(javaType, p);
         }
@@ -241,21 +1760,49 @@ public class EliminateUnreachableTypes extends ScanningRecipe<Map<String, Elimin
                     return type;
                 }
                 Optional<JavaType.Class> raw = raw(type);
-                if (remove.contains(raw.get().getFullyQualifiedName())) {
+                if (isRemoved(raw.get().getFullyQualifiedName())) {
                     pruneCurrentReference = true;
                 }
                 return type;
             }
         }
 
-        private final Set<String> keep;
-        // Whereas "keep" is the set of types that should exist in this project after this pass completes, the "remove"
-        // list might contain types we can't actually remove. Used only for javadoc reference rewrites.
-        private final Set<String> remove;
+        private final TypeGraph graph;
+        // Set for each id in the graph that should exist in this project after this pass completes. A clear bit
+        // means the type or member is removed - though for javadoc, some of those might be types we can't actually
+        // remove.
+        private final BitSet reachable;
+        // Set for each kept type that is only needed by signatures, and is gutted
+        private final BitSet gutted;
+        // Files that might change - all others are left as-is without visiting them
+        private final Set<Path> sourcesToVisit;
+        // Direct subtypes of each scanned type, only recorded with rapid type analysis
+        private final Map<String, Set<String>> subtypes;
+        // Scanned members, for the interface methods that each inherited implementation stands in for
+        private final Map<String, MemberModel> members;
+
+        public EliminateUnreachableTypesVisitor(TypeGraph graph, BitSet reachable, BitSet gutted, Set<Path> sourcesToVisit, Map<String, Set<String>> subtypes, Map<String, MemberModel> members) {
+            this.graph = graph;
+            this.reachable = reachable;
+            this.gutted = gutted;
+            this.sourcesToVisit = sourcesToVisit;
+            this.subtypes = subtypes;
+            this.members = members;
+        }
+
+        private boolean isKept(String name) {
+            int id = graph.idOf(name);
+            return id != -1 && reachable.get(id);
+        }
+
+        private boolean isRemoved(String name) {
+            int id = graph.idOf(name);
+            return id != -1 && !reachable.get(id);
+        }
 
-        public EliminateUnreachableTypesVisitor(Set<String> keep, Set<String> remove) {
-            this.keep = keep;
-            this.remove = remove;
+        private boolean isGuttedType(@Nullable JavaType.FullyQualified type) {
+            int id = type == null ? -1 : graph.idOf(type.getFullyQualifiedName());
+            return id != -1 && gutted.get(id);
         }
 
         @Override
@@ -268,10 +1815,14 @@ public class EliminateUnreachableTypes extends ScanningRecipe<Map<String, Elimin
 
         @Override
         public J.CompilationUnit visitCompilationUnit(J.CompilationUnit cu, ExecutionContext executionContext) {
+            if (!sourcesToVisit.contains(cu.getSourcePath())) {
+                return cu;
+            }
             J.CompilationUnit compilationUnit = super.visitCompilationUnit(cu, executionContext);
             if (compilationUnit.getClasses().isEmpty()) {
                 // No types in this file, remove it.
                 // Despite the warning about returning null, this seems to work?
+                removedDeclarations.set(true);
                 return null;
             }
             return compilationUnit;
@@ -280,13 +1831,228 @@ public class EliminateUnreachableTypes extends ScanningRecipe<Map<String, Elimin
         @Override
         public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, ExecutionContext executionContext) {
             Optional<JavaType.Class> raw = raw(classDecl.getType());
-            if (raw.isEmpty() || !keep.contains(raw.get().getFullyQualifiedName())) {
+            if (raw.isEmpty() || !isKept(raw.get().getFullyQualifiedName())) {
                 // If the type is not in the keep set, remove it.
                 // Despite the warning about returning null, this seems to work?
+                removedDeclarations.set(true);
                 return null;
             }
+            if (memberLevel && classDecl.getKind() != J.ClassDeclaration.Kind.Type.Annotation) {
+                String owner = raw.get().getFullyQualifiedName();
+                J.ClassDeclaration enclosing = classDecl;
+                classDecl = classDecl.withBody(classDecl.getBody().withStatements(ListUtils.map(classDecl.getBody().getStatements(), stmt -> {
+                    if (stmt instanceof J.MethodDeclaration && isRemoved(methodKey(owner, (J.MethodDeclaration) stmt))) {
+                        if (mustImplement(enclosing, (J.MethodDeclaration) stmt)) {
+                            // Gutted when visited
+                            return stmt;
+                        }
+                        removedDeclarations.set(true);
+                        return null;
+                    } else if (stmt instanceof J.VariableDeclarations && isRemoved(fieldKey(owner, ((J.VariableDeclarations) stmt).getVariables().get(0).getSimpleName()))) {
+                        removedDeclarations.set(true);
+                        return null;
+                    }
+                    return stmt;
+                })));
+            }
+            if (isGuttedType(classDecl.getType()) && classDecl.getKind() != J.ClassDeclaration.Kind.Type.Annotation) {
+                // The dependencies of whatever is left were already counted, so this doesn't need another cycle
+                classDecl = ClassGutter.gut(classDecl, Collections.emptySet());
+            }
             return super.visitClassDeclaration(classDecl, executionContext);
         }
+
+        @Override
+        public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, ExecutionContext executionContext) {
+            if (getCursor().getParentTreeCursor().getParentTreeCursor().getValue() instanceof J.ClassDeclaration) {
+                J.ClassDeclaration classDecl = getCursor().getParentTreeCursor().getParentTreeCursor().getValue();
+                if (isGuttedType(classDecl.getType()) && ClassGutter.needsStub(method)) {
+                    return stub(classDecl, super.visitMethodDeclaration(method, executionContext));
+                }
+            }
+            if (rapidTypeAnalysis && getCursor().getParentTreeCursor().getParentTreeCursor().getValue() instanceof J.ClassDeclaration) {
+                J.ClassDeclaration classDecl = getCursor().getParentTreeCursor().getParentTreeCursor().getValue();
+                if (isRemoved(methodKey(classDecl.getType().getFullyQualifiedName(), method)) && mustImplement(classDecl, method)
+                        && ClassGutter.needsStub(method)) {
+                    // Can only be called on an instance, and there are none. The body's dependencies were never
+                    // followed, so this doesn't need another cycle.
+                    return stub(classDecl, method);
+                }
+            }
+            return super.visitMethodDeclaration(method, executionContext);
+        }
+
+        /**
+         * Replaces a method's body with a throw, as {@link RemoveClassInternals} does.
+         */
+        private J.MethodDeclaration stub(J.ClassDeclaration classDecl, J.MethodDeclaration method) {
+            return ClassGutter.stub(getCursor(), method, prefix -> JavaTemplate
+                    .builder(prefix + "throw new UnsupportedOperationException(\"" + ClassGutter.stubMessage(classDecl, method) + "\")")
+                    .build());
+        }
+
+        /**
+         * An unreachable override in a type that isn't instantiated must still exist if it implements an abstract
+         * method that is kept, or one declared by a type we don't have sources for, which may be called from
+         * anywhere. A concrete type needs its own implementation. One in an abstract class or a default method is
+         * only needed if some kept subtype could inherit it. Any method is also needed if a kept subtype inherits it
+         * to implement such a method of its own interfaces, as found by the scanner's walk of each superclass chain.
+         */
+        private boolean mustImplement(J.ClassDeclaration classDecl, J.MethodDeclaration method) {
+            JavaType.Method methodType = method.getMethodType();
+            if (!rapidTypeAnalysis || methodType == null || method.getBody() == null || classDecl.getType() == null
+                    || method.isConstructor() || methodType.hasFlags(Flag.Static) || methodType.hasFlags(Flag.Private)) {
+                return false;
+            }
+            int arity = methodType.getParameterTypes().size();
+            if (isInheritedToImplement(classDecl.getType().getFullyQualifiedName(), methodType.getName(), arity)) {
+                return true;
+            }
+            if (!implementsAbstract(classDecl.getType(), methodType.getName(), arity)) {
+                return false;
+            }
+            if (classDecl.hasModifier(J.Modifier.Type.Abstract) || classDecl.getKind() == J.ClassDeclaration.Kind.Type.Interface) {
+                return isInheritedByKeptType(classDecl.getType().getFullyQualifiedName(), methodType.getName(), arity);
+            }
+            return true;
+        }
+
+        private boolean implementsAbstract(JavaType.FullyQualified type, String name, int arity) {
+            for (JavaType.FullyQualified supertype : supertypes(type)) {
+                for (JavaType.Method candidate : supertype.getMethods()) {
+                    if (candidate.getName().equals(name) && candidate.getParameterTypes().size() == arity && candidate.hasFlags(Flag.Abstract)
+                            && (graph.idOf(supertype.getFullyQualifiedName()) == -1 || isKept(methodKey(supertype.getFullyQualifiedName(), name, arity)))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Looks through the kept subtypes that inherit the owner's method, for one that uses it to implement an
+         * interface method that is kept, or that we don't have sources for.
+         */
+        private boolean isInheritedToImplement(String owner, String name, int arity) {
+            String key = methodKey(owner, name, arity);
+            List<String> worklist = new ArrayList<>(subtypes.getOrDefault(owner, Collections.emptySet()));
+            Set<String> seen = new HashSet<>(worklist);
+            while (!worklist.isEmpty()) {
+                String subtype = worklist.remove(worklist.size() - 1);
+                if (!isKept(subtype)) {
+                    // Its subtypes are removed too
+                    continue;
+                }
+                MemberModel inherited = members.get(inheritedKey(subtype, key));
+                if (inherited != null && inherited.getOverrides().stream().anyMatch(this::isNeeded)) {
+                    return true;
+                }
+                if (graph.idOf(methodKey(subtype, name, arity)) == -1) {
+                    // Doesn't declare the method, so its own subtypes inherit the owner's too
+                    for (String next : subtypes.getOrDefault(subtype, Collections.emptySet())) {
+                        if (seen.add(next)) {
+                            worklist.add(next);
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return true if the given method is kept, or is declared by a type we don't have sources for
+         */
+        private boolean isNeeded(String method) {
+            return graph.idOf(method) == -1 || isKept(method);
+        }
+
+        /**
+         * Looks for a kept subtype of the owner that doesn't declare the method itself, so would inherit the owner's.
+         * Subtypes of removed types are removed too, and one that declares the method hides the owner's from its own
+         * subtypes, so only direct subtypes need checking. Abstract subtypes are counted too, which at worst keeps a
+         * stub that isn't needed.
+         */
+        private boolean isInheritedByKeptType(String owner, String name, int arity) {
+            for (String subtype : subtypes.getOrDefault(owner, Collections.emptySet())) {
+                if (isKept(subtype) && graph.idOf(methodKey(subtype, name, arity)) == -1) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the given type and all of its supertypes, each only once.
+     */
+    private static Set<JavaType.FullyQualified> supertypes(JavaType.@Nullable FullyQualified type) {
+        Set<JavaType.FullyQualified> supertypes = new LinkedHashSet<>();
+        Set<String> seen = new HashSet<>();
+        List<JavaType.FullyQualified> worklist = new ArrayList<>();
+        if (type != null) {
+            worklist.add(type);
+        }
+        while (!worklist.isEmpty()) {
+            JavaType.FullyQualified next = worklist.remove(worklist.size() - 1);
+            if (seen.add(next.getFullyQualifiedName())) {
+                supertypes.add(next);
+                if (next.getSupertype() != null) {
+                    worklist.add(next.getSupertype());
+                }
+                worklist.addAll(next.getInterfaces());
+            }
+        }
+        return supertypes;
+    }
+
+    /**
+     * Walks the superclass chain of the given class for the methods it inherits to implement methods of its
+     * interfaces, where the superclass doesn't implement that interface itself, so none of its own methods are
+     * linked to it. Each inherited method's key is mapped to the keys of the interface methods it implements.
+     */
+    private static Map<String, Set<String>> inheritedImplementations(JavaType.@Nullable FullyQualified type) {
+        Map<String, Set<String>> implementations = new TreeMap<>();
+        if (type == null || type.getSupertype() == null) {
+            return implementations;
+        }
+        Set<String> superclassInterfaces = new HashSet<>();
+        for (JavaType.FullyQualified supertype : supertypes(type.getSupertype())) {
+            superclassInterfaces.add(supertype.getFullyQualifiedName());
+        }
+        for (JavaType.FullyQualified iface : supertypes(type)) {
+            if (iface.getKind() != JavaType.FullyQualified.Kind.Interface || superclassInterfaces.contains(iface.getFullyQualifiedName())) {
+                continue;
+            }
+            for (JavaType.Method method : iface.getMethods()) {
+                int arity = method.getParameterTypes().size();
+                if (method.hasFlags(Flag.Static) || method.hasFlags(Flag.Private) || findInstanceMethod(type, method.getName(), arity) != null) {
+                    // Not inherited, or this type implements it itself
+                    continue;
+                }
+                for (JavaType.FullyQualified superclass = type.getSupertype(); superclass != null; superclass = superclass.getSupertype()) {
+                    JavaType.Method inherited = findInstanceMethod(superclass, method.getName(), arity);
+                    if (inherited != null) {
+                        // The nearest declaration is the one that is inherited, unless it is abstract
+                        if (!inherited.hasFlags(Flag.Abstract)) {
+                            implementations.computeIfAbsent(methodKey(superclass.getFullyQualifiedName(), method.getName(), arity), ignore -> new TreeSet<>())
+                                    .add(methodKey(iface.getFullyQualifiedName(), method.getName(), arity));
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return implementations;
+    }
+
+    private static JavaType.@Nullable Method findInstanceMethod(JavaType.FullyQualified type, String name, int arity) {
+        for (JavaType.Method method : type.getMethods()) {
+            if (method.getName().equals(name) && method.getParameterTypes().size() == arity && !method.isConstructor()
+                    && !method.hasFlags(Flag.Static) && !method.hasFlags(Flag.Private)) {
+                return method;
+            }
+        }
+        return null;
     }
 
     private static Optional<JavaType.Class> raw(JavaType type) {
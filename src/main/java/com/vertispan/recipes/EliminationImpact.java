@@ -0,0 +1,76 @@
+package com.vertispan.recipes;
+
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+/**
+ * What {@link EliminateUnreachableTypes} would remove from each package, written in place of any changes when
+ * running in report-only mode.
+ */
+public class EliminationImpact extends DataTable<EliminationImpact.Row> {
+    public EliminationImpact(Recipe recipe) {
+        super(recipe, "Elimination impact",
+                "For each package, how many types, members, files and lines would be kept or removed.");
+    }
+
+    public static class Row {
+        @Column(displayName = "Package",
+                description = "The package name, empty for the default package and for files that declare no types.")
+        private final String packageName;
+
+        @Column(displayName = "Kept types",
+                description = "The number of types in the package that are reachable from the entrypoints.")
+        private final int keptTypes;
+
+        @Column(displayName = "Removed types",
+                description = "The number of types in the package that would be removed, including nested types.")
+        private final int removedTypes;
+
+        @Column(displayName = "Removed members",
+                description = "The number of methods, constructors and fields that would be removed from kept types. " +
+                        "Always zero unless scanning at the member level.")
+        private final int removedMembers;
+
+        @Column(displayName = "Removed files",
+                description = "The number of source files that would be deleted.")
+        private final int removedFiles;
+
+        @Column(displayName = "Lines removed",
+                description = "The number of source lines in deleted files, removed types and removed members.")
+        private final int linesRemoved;
+
+        public Row(String packageName, int keptTypes, int removedTypes, int removedMembers, int removedFiles, int linesRemoved) {
+            this.packageName = packageName;
+            this.keptTypes = keptTypes;
+            this.removedTypes = removedTypes;
+            this.removedMembers = removedMembers;
+            this.removedFiles = removedFiles;
+            this.linesRemoved = linesRemoved;
+        }
+
+        public String getPackageName() {
+            return packageName;
+        }
+
+        public int getKeptTypes() {
+            return keptTypes;
+        }
+
+        public int getRemovedTypes() {
+            return removedTypes;
+        }
+
+        public int getRemovedMembers() {
+            return removedMembers;
+        }
+
+        public int getRemovedFiles() {
+            return removedFiles;
+        }
+
+        public int getLinesRemoved() {
+            return linesRemoved;
+        }
+    }
+}
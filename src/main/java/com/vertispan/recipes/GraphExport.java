@@ -0,0 +1,350 @@
+package com.vertispan.recipes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the dependency graph scanned by {@link EliminateUnreachableTypes} to a file as it is discovered, so
+ * that it can be examined with other tools, or loaded later to compute keep sets without parsing the sources
+ * again. Nothing is buffered beyond what the output stream needs - nodes and edges are written as each source
+ * file is scanned. Edges may point to types that are never declared, those are dependencies we don't have
+ * sources for.
+ * <p>
+ * The format is picked from the file extension: {@code .dot} or {@code .gv} for Graphviz, {@code .graphml} for
+ * GraphML, and anything else for a compact binary edge list that {@link #read(Path, Listener)} can load.
+ */
+public final class GraphExport {
+    private static final int MAGIC = 0x45555447;// "EUTG"
+    private static final int VERSION = 2;
+
+    private static final byte STRING = 0;
+    private static final byte TYPE = 1;
+    private static final byte MEMBER = 2;
+    private static final byte EDGE = 3;
+    private static final byte OVERRIDE = 4;
+    private static final byte END = 5;
+
+    private GraphExport() {
+    }
+
+    /**
+     * Receives each part of the graph as it is scanned, or as it is read back.
+     */
+    public interface Listener {
+        void type(String name, boolean isPublic);
+
+        void member(String name, String owner);
+
+        /**
+         * @param kinds a mask of the {@link EdgeKind}s this dependency was found by
+         */
+        void edge(String from, String to, int kinds);
+
+        void override(String member, String overridden);
+    }
+
+    /**
+     * Writes the graph. {@link #finish(Iterable)} must be called once scanning is complete, to close the file.
+     */
+    public interface GraphWriter extends Listener, Closeable {
+        /**
+         * Writes any trailing content and closes the file.
+         *
+         * @param externalNames names that edges refer to but that were never declared
+         */
+        void finish(Iterable<String> externalNames);
+    }
+
+    public static GraphWriter open(Path file) {
+        String fileName = file.getFileName().toString();
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            if (fileName.endsWith(".dot") || fileName.endsWith(".gv")) {
+                return new DotWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+            } else if (fileName.endsWith(".graphml")) {
+                return new GraphMLWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+            }
+            return new BinaryWriter(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file))));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open graph export file " + file, e);
+        }
+    }
+
+    /**
+     * Reads a graph written in the binary format, passing each part to the listener in the order it was written.
+     */
+    public static void read(Path file, Listener listener) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Not a binary graph export, or from an incompatible version: " + file);
+            }
+            List<String> strings = new ArrayList<>();
+            while (true) {
+                byte tag = in.readByte();
+                switch (tag) {
+                    case STRING:
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        strings.add(new String(bytes, StandardCharsets.UTF_8));
+                        break;
+                    case TYPE:
+                        listener.type(strings.get(in.readInt()), in.readBoolean());
+                        break;
+                    case MEMBER:
+                        listener.member(strings.get(in.readInt()), strings.get(in.readInt()));
+                        break;
+                    case EDGE:
+                        listener.edge(strings.get(in.readInt()), strings.get(in.readInt()), in.readInt());
+                        break;
+                    case OVERRIDE:
+                        listener.override(strings.get(in.readInt()), strings.get(in.readInt()));
+                        break;
+                    case END:
+                        return;
+                    default:
+                        throw new IllegalStateException("Unexpected record " + tag + " in " + file);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IllegalStateException("Graph export is incomplete, scanning may not have finished: " + file, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read graph export file " + file, e);
+        }
+    }
+
+    private static class BinaryWriter implements GraphWriter {
+        private final DataOutputStream out;
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private BinaryWriter(DataOutputStream out) {
+            this.out = out;
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private int id(String name) throws IOException {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = ids.size();
+                ids.put(name, id);
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeByte(STRING);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            return id;
+        }
+
+        @Override
+        public void type(String name, boolean isPublic) {
+            try {
+                int id = id(name);
+                out.writeByte(TYPE);
+                out.writeInt(id);
+                out.writeBoolean(isPublic);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void member(String name, String owner) {
+            write(MEMBER, name, owner);
+        }
+
+        @Override
+        public void edge(String from, String to, int kinds) {
+            try {
+                write(EDGE, from, to);
+                out.writeInt(kinds);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void override(String member, String overridden) {
+            write(OVERRIDE, member, overridden);
+        }
+
+        private void write(byte tag, String first, String second) {
+            try {
+                int firstId = id(first);
+                int secondId = id(second);
+                out.writeByte(tag);
+                out.writeInt(firstId);
+                out.writeInt(secondId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void finish(Iterable<String> externalNames) {
+            try {
+                out.writeByte(END);
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static class DotWriter implements GraphWriter {
+        private final Writer out;
+
+        private DotWriter(Writer out) {
+            this.out = out;
+            write("digraph types {\n");
+        }
+
+        private void write(String text) {
+            try {
+                out.write(text);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static String quote(String name) {
+            return '"' + name.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+        }
+
+        @Override
+        public void type(String name, boolean isPublic) {
+            write("  " + quote(name) + (isPublic ? " [shape=box, penwidth=2];\n" : " [shape=box];\n"));
+        }
+
+        @Override
+        public void member(String name, String owner) {
+            write("  " + quote(name) + " [shape=ellipse];\n");
+        }
+
+        @Override
+        public void edge(String from, String to, int kinds) {
+            write("  " + quote(from) + " -> " + quote(to) + " [label=" + quote(EdgeKind.names(kinds)) + "];\n");
+        }
+
+        @Override
+        public void override(String member, String overridden) {
+            write("  " + quote(member) + " -> " + quote(overridden) + " [style=dashed, label=overrides];\n");
+        }
+
+        @Override
+        public void finish(Iterable<String> externalNames) {
+            for (String name : externalNames) {
+                write("  " + quote(name) + " [style=dotted];\n");
+            }
+            write("}\n");
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static class GraphMLWriter implements GraphWriter {
+        private final Writer out;
+        private int edgeCount;
+
+        private GraphMLWriter(BufferedWriter out) {
+            this.out = out;
+            write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n"
+                    + "  <key id=\"public\" for=\"node\" attr.name=\"public\" attr.type=\"boolean\"/>\n"
+                    + "  <key id=\"owner\" for=\"node\" attr.name=\"owner\" attr.type=\"string\"/>\n"
+                    + "  <key id=\"external\" for=\"node\" attr.name=\"external\" attr.type=\"boolean\"/>\n"
+                    + "  <key id=\"kind\" for=\"edge\" attr.name=\"kind\" attr.type=\"string\"/>\n"
+                    + "  <key id=\"edgeKinds\" for=\"edge\" attr.name=\"edgeKinds\" attr.type=\"string\"/>\n"
+                    + "  <graph id=\"types\" edgedefault=\"directed\">\n");
+        }
+
+        private void write(String text) {
+            try {
+                out.write(text);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static String escape(String text) {
+            return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+
+        @Override
+        public void type(String name, boolean isPublic) {
+            write("    <node id=\"" + escape(name) + "\"><data key=\"public\">" + isPublic + "</data></node>\n");
+        }
+
+        @Override
+        public void member(String name, String owner) {
+            write("    <node id=\"" + escape(name) + "\"><data key=\"owner\">" + escape(owner) + "</data></node>\n");
+        }
+
+        @Override
+        public void edge(String from, String to, int kinds) {
+            writeEdge(from, to, "dependency", "<data key=\"edgeKinds\">" + EdgeKind.names(kinds) + "</data>");
+        }
+
+        @Override
+        public void override(String member, String overridden) {
+            writeEdge(member, overridden, "override", "");
+        }
+
+        private void writeEdge(String from, String to, String kind, String data) {
+            write("    <edge id=\"e" + edgeCount++ + "\" source=\"" + escape(from) + "\" target=\"" + escape(to)
+                    + "\"><data key=\"kind\">" + kind + "</data>" + data + "</edge>\n");
+        }
+
+        @Override
+        public void finish(Iterable<String> externalNames) {
+            // Every edge target must be declared as a node
+            for (String name : externalNames) {
+                write("    <node id=\"" + escape(name) + "\"><data key=\"external\">true</data></node>\n");
+            }
+            write("  </graph>\n</graphml>\n");
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.vertispan.recipes;
+
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+/**
+ * For each type that {@link EliminateUnreachableTypes} keeps, the shortest chain of dependencies from an
+ * entrypoint that caused it to be kept.
+ */
+public class KeptTypePaths extends DataTable<KeptTypePaths.Row> {
+    public KeptTypePaths(Recipe recipe) {
+        super(recipe, "Kept type paths",
+                "The shortest chain of dependencies from an entrypoint to each type that was kept.");
+    }
+
+    public static class Row {
+        @Column(displayName = "Kept type",
+                description = "The fully qualified name of the kept type.")
+        private final String type;
+
+        @Column(displayName = "Entrypoint",
+                description = "The entrypoint that the chain starts from.")
+        private final String entrypoint;
+
+        @Column(displayName = "Depth",
+                description = "The number of dependency edges between the entrypoint and the kept type.")
+        private final int depth;
+
+        @Column(displayName = "Path",
+                description = "Each type (or member) in the chain, starting with the entrypoint, separated by \" -> \".")
+        private final String path;
+
+        public Row(String type, String entrypoint, int depth, String path) {
+            this.type = type;
+            this.entrypoint = entrypoint;
+            this.depth = depth;
+            this.path = path;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getEntrypoint() {
+            return entrypoint;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public String getPath() {
+            return path;
+        }
+    }
+}
@@ -2,17 +2,28 @@ package com.vertispan.recipes;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
 import org.openrewrite.ExecutionContext;
 import org.openrewrite.NlsRewrite;
 import org.openrewrite.Option;
-import org.openrewrite.Recipe;
+import org.openrewrite.ScanningRecipe;
+import org.openrewrite.SourceFile;
 import org.openrewrite.TreeVisitor;
 import org.openrewrite.java.JavaIsoVisitor;
 import org.openrewrite.java.JavaTemplate;
 import org.openrewrite.java.MethodMatcher;
 import org.openrewrite.java.tree.J;
 
-public class MethodThrowsException extends Recipe {
+import java.util.Collection;
+
+/**
+ * Replaces the body of each matched method with a throw. With {@code stubHelperClass}, each matched method throws
+ * the exception made by a generated helper class, shared with {@link RemoveClassInternals}, as described in
+ * {@link StubHelper}.
+ */
+public class MethodThrowsException extends ScanningRecipe<StubHelper> {
+    private static final String REMOVED_IMPORTS = "removedImports";
+
     @Option(displayName = "Removed method",
             description = "The method to remove",
             example = "someMethod()")
@@ -25,15 +36,26 @@ public class MethodThrowsException extends Recipe {
     @NonNull
     String exceptionTemplate;
 
+    @Option(displayName = "Stub helper class",
+            description = "If set, matched methods throw the exception made by this generated class, rather than " +
+                    "the exception template, e.g. com.example.Stubs",
+            example = "com.example.Stubs",
+            required = false)
+    @Nullable
+    String stubHelperClass;
+
     private final MethodMatcher matcher;
 
-    public MethodThrowsException(@JsonProperty("target") String target, @JsonProperty("exceptionTemplate") String exceptionTemplate) {
+    public MethodThrowsException(@JsonProperty("target") String target, @JsonProperty("exceptionTemplate") String exceptionTemplate, @JsonProperty("stubHelperClass") @Nullable String stubHelperClass) {
         this.target = target;
         if (exceptionTemplate == null) {
             this.exceptionTemplate = "throw new UnsupportedOperationException(\"" + target + "\")";
+        } else if (stubHelperClass != null) {
+            throw new IllegalStateException("exceptionTemplate and stubHelperClass cannot both be set");
         } else {
             this.exceptionTemplate = exceptionTemplate;
         }
+        this.stubHelperClass = stubHelperClass;
         this.matcher = new MethodMatcher(target, false);
     }
 
@@ -51,16 +73,79 @@ public class MethodThrowsException extends Recipe {
     }
 
     @Override
-    public TreeVisitor<?, ExecutionContext> getVisitor() {
+    public StubHelper getInitialValue(ExecutionContext ctx) {
+        return stubHelperClass == null ? StubHelper.none() : StubHelper.get(ctx, stubHelperClass);
+    }
+
+    @Override
+    public TreeVisitor<?, ExecutionContext> getScanner(StubHelper acc) {
+        if (stubHelperClass == null) {
+            return TreeVisitor.noop();
+        }
+        // Registers a stub for each method that the visitor will replace
         return new JavaIsoVisitor<>() {
+            @Override
+            public J.CompilationUnit visitCompilationUnit(J.CompilationUnit cu, ExecutionContext ctx) {
+                acc.scanned(cu);
+                return super.visitCompilationUnit(cu, ctx);
+            }
+
+            @Override
+            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, ExecutionContext ctx) {
+                J.ClassDeclaration classDecl = getCursor().firstEnclosing(J.ClassDeclaration.class);
+                if (classDecl != null && classDecl.getType() != null && matcher.matches(method, classDecl)) {
+                    acc.register(getCursor().firstEnclosingOrThrow(J.CompilationUnit.class).getSourcePath(), classDecl.getType(), stubName(classDecl, method));
+                }
+                return super.visitMethodDeclaration(method, ctx);
+            }
+        };
+    }
+
+    @Override
+    public Collection<? extends SourceFile> generate(StubHelper acc, ExecutionContext ctx) {
+        return acc.generate(ctx);
+    }
+
+    private static String stubName(J.ClassDeclaration classDecl, J.MethodDeclaration method) {
+        return classDecl.getType().getFullyQualifiedName() + "#" + (method.isConstructor() ? "<init>" : method.getSimpleName());
+    }
+
+    @Override
+    public TreeVisitor<?, ExecutionContext> getVisitor(StubHelper acc) {
+        return new JavaIsoVisitor<>() {
+            @Override
+            public J.CompilationUnit visitCompilationUnit(J.CompilationUnit cu, ExecutionContext ctx) {
+                J.CompilationUnit replacement = acc.replacement(cu, ctx);
+                if (replacement != null) {
+                    return replacement;
+                }
+                // Imports used only by the replaced bodies are removed in the same pass
+                RemovedImports removedImports = new RemovedImports();
+                getCursor().putMessage(REMOVED_IMPORTS, removedImports);
+                J.CompilationUnit c = super.visitCompilationUnit(cu, ctx);
+                for (String type : removedImports.imports(c)) {
+                    maybeRemoveImport(type);
+                }
+                return c;
+            }
+
             @Override
             public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, ExecutionContext executionContext) {
                 J.MethodDeclaration methodDeclaration = super.visitMethodDeclaration(method, executionContext);
                 J.ClassDeclaration classDecl = getCursor().firstEnclosing(J.ClassDeclaration.class);
                 if (matcher.matches(method, classDecl)) {
-                    final JavaTemplate replacementTemplate = JavaTemplate
-                            .builder(exceptionTemplate)
-                            .build();
+                    RemovedImports removedImports = getCursor().getNearestMessage(REMOVED_IMPORTS);
+                    if (removedImports != null) {
+                        removedImports.removed(methodDeclaration.getBody());
+                    }
+                    JavaTemplate replacementTemplate = classDecl == null || classDecl.getType() == null ? null : acc.template("", stubName(classDecl, method));
+                    if (replacementTemplate == null) {
+                        replacementTemplate = JavaTemplate
+                                .builder(exceptionTemplate)
+                                .build();
+                    } else {
+                        maybeAddImport(acc.getClassName());
+                    }
 
                     return replacementTemplate.apply(getCursor(), methodDeclaration.getCoordinates().replaceBody());
                 }
@@ -1,35 +1,133 @@
 package com.vertispan.recipes;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.openrewrite.Cursor;
 import org.openrewrite.ExecutionContext;
 import org.openrewrite.NlsRewrite;
 import org.openrewrite.Option;
-import org.openrewrite.Recipe;
+import org.openrewrite.ScanningRecipe;
+import org.openrewrite.SourceFile;
 import org.openrewrite.TreeVisitor;
-import org.openrewrite.internal.ListUtils;
 import org.openrewrite.java.JavaIsoVisitor;
 import org.openrewrite.java.JavaTemplate;
+import org.openrewrite.java.MethodMatcher;
 import org.openrewrite.java.tree.J;
 import org.openrewrite.java.tree.Statement;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
 /**
- * Rewrites a class to do nothing - all public methods and constructors throw, all private members are removed.
+ * Rewrites a class to do nothing - all public methods and constructors throw, initializers and any private members
+ * that what is left doesn't refer to are removed, and fields lose their initializers unless they are compile-time
+ * constants.
  * Useful for when a class is used in many other APIs, but will either never actually be used, or null can
  * be passed instead.
  * <p>
  * Similar to calling MethodThrowsException with {@code fully.qualified.ClassName *(..)}, but will also specifically
  * remove private methods and fields.
+ * <p>
+ * Any number of classes can be gutted in the same pass, named exactly or by the patterns described in
+ * {@link TypePatternIndex}. Each class declaration is checked once, with a hash lookup for exact names, and only
+ * the patterns filed under its own package.
+ * <p>
+ * Members matched by {@code retain} are kept unchanged, along with the private methods, fields and nested classes
+ * they use, transitively, so a few cheap members such as getters or {@code equals}/{@code hashCode} keep working.
+ * A retained final field without an initializer also keeps the initializer blocks that assign it.
+ * <p>
+ * With {@code stubHelperClass}, each method throws the exception made by a generated helper class, shared with
+ * {@link MethodThrowsException}, as described in {@link StubHelper}.
  */
-public class RemoveClassInternals extends Recipe {
+public class RemoveClassInternals extends ScanningRecipe<StubHelper> {
+    private static final String GUTTED = "gutted";
+    private static final String REMOVED_IMPORTS = "removedImports";
+    private static final String RETAINED = "retained";
+
     @Option(displayName = "Class to remove internals from",
             description = "Fully qualified class name to remove internals from, e.g. com.example.MyClass",
-            example = "com.example.MyClass")
-    @NonNull
+            example = "com.example.MyClass",
+            required = false)
+    @Nullable
     private final String fullyQualifiedClassName;
 
-    public RemoveClassInternals(@NonNull @JsonProperty("fullyQualifiedClassName") String fullyQualifiedClassName) {
+    @Option(displayName = "Classes to remove internals from",
+            description = "Fully qualified class names, or patterns such as com.example.server.** or com.**.*Impl, " +
+                    "to remove internals from.",
+            example = "com.example.server.**",
+            required = false)
+    @Nullable
+    private final List<String> classNames;
+
+    @Option(displayName = "Stub helper class",
+            description = "If set, stubbed methods throw the exception made by this generated class, rather than each " +
+                    "creating their own, e.g. com.example.Stubs",
+            example = "com.example.Stubs",
+            required = false)
+    @Nullable
+    private final String stubHelperClass;
+
+    @Option(displayName = "Members to retain",
+            description = "Methods, as method patterns such as com.example.MyClass getName(), and fields, as a class " +
+                    "pattern and field name such as com.example.MyClass name, to keep unchanged in gutted classes. " +
+                    "Private members that they use are kept as well.",
+            example = "com.example.MyClass equals(..)",
+            required = false)
+    @Nullable
+    private final List<String> retain;
+
+    private final transient TypeNameMatcher matcher;
+    private final transient List<MethodMatcher> retainedMethods = new ArrayList<>();
+    private final transient List<FieldPattern> retainedFields = new ArrayList<>();
+
+    private static class FieldPattern {
+        private final TypeNameMatcher owner;
+        private final String name;
+
+        private FieldPattern(TypeNameMatcher owner, String name) {
+            this.owner = owner;
+            this.name = name;
+        }
+    }
+
+    public RemoveClassInternals(@JsonProperty("fullyQualifiedClassName") @Nullable String fullyQualifiedClassName, @JsonProperty("classNames") @Nullable List<String> classNames, @JsonProperty("stubHelperClass") @Nullable String stubHelperClass, @JsonProperty("retain") @Nullable List<String> retain) {
         this.fullyQualifiedClassName = fullyQualifiedClassName;
+        this.classNames = classNames;
+        this.stubHelperClass = stubHelperClass;
+        this.retain = retain;
+        if (retain != null) {
+            for (String member : retain) {
+                if (member.contains("(")) {
+                    retainedMethods.add(new MethodMatcher(member, true));
+                    continue;
+                }
+                String[] parts = member.trim().split("\\s+");
+                if (parts.length != 2) {
+                    throw new IllegalStateException("Retained fields must be a class name or pattern followed by a field name, but got " + member);
+                }
+                retainedFields.add(new FieldPattern(new TypeNameMatcher(Collections.singletonList(parts[0])), parts[1]));
+            }
+        }
+        List<String> namesAndPatterns = new ArrayList<>();
+        if (fullyQualifiedClassName != null) {
+            namesAndPatterns.add(fullyQualifiedClassName);
+        }
+        if (classNames != null) {
+            namesAndPatterns.addAll(classNames);
+        }
+        this.matcher = new TypeNameMatcher(namesAndPatterns);
+        if (matcher.isEmpty()) {
+            throw new IllegalStateException("At least one of fullyQualifiedClassName or classNames must be set");
+        }
     }
 
     @NlsRewrite.DisplayName
@@ -45,54 +143,269 @@ public class RemoveClassInternals extends Recipe {
     }
 
     @Override
-    public TreeVisitor<?, ExecutionContext> getVisitor() {
+    public StubHelper getInitialValue(ExecutionContext ctx) {
+        return stubHelperClass == null ? StubHelper.none() : StubHelper.get(ctx, stubHelperClass);
+    }
+
+    @Override
+    public TreeVisitor<?, ExecutionContext> getScanner(StubHelper acc) {
+        if (stubHelperClass == null) {
+            return TreeVisitor.noop();
+        }
+        // Registers a stub for each method that the visitor will replace
         return new JavaIsoVisitor<>() {
+            @Override
+            public J.CompilationUnit visitCompilationUnit(J.CompilationUnit cu, ExecutionContext ctx) {
+                acc.scanned(cu);
+                return super.visitCompilationUnit(cu, ctx);
+            }
+
             @Override
             public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, ExecutionContext ctx) {
-                if (classDecl.getType() != null && classDecl.getType().getFullyQualifiedName().equals(fullyQualifiedClassName)) {
-                    // Remove all private fields and methods before visiting
-                    classDecl = classDecl.withBody(classDecl.getBody().withStatements(ListUtils.map(classDecl.getBody().getStatements(), stmt -> {
-                        if (stmt instanceof J.MethodDeclaration && ((J.MethodDeclaration) stmt).hasModifier(J.Modifier.Type.Private)) {
-                            return null; // Remove private methods
-                        } else if (stmt instanceof J.VariableDeclarations && ((J.VariableDeclarations) stmt).hasModifier(J.Modifier.Type.Private)) {
-                            return null; // Remove private fields
-                        }
-                        return stmt;
-                    })));
-                    // visit what's left
-                    return super.visitClassDeclaration(classDecl, ctx);
+                if (isRetained(getCursor(), classDecl)) {
+                    return classDecl;
+                }
+                boolean gutted = isGutted(classDecl);
+                getCursor().putMessage(GUTTED, gutted);
+                if (gutted) {
+                    Set<UUID> retained = retained(classDecl);
+                    getCursor().putMessage(RETAINED, retained);
+                    // Only what the visitor will keep can hold stubs
+                    return super.visitClassDeclaration(ClassGutter.gut(classDecl, retained), ctx);
+                }
+                return super.visitClassDeclaration(classDecl, ctx);
+            }
+
+            @Override
+            public J.VariableDeclarations visitVariableDeclarations(J.VariableDeclarations multiVariable, ExecutionContext ctx) {
+                if (isRetained(getCursor(), multiVariable)) {
+                    return multiVariable;
+                }
+                return super.visitVariableDeclarations(multiVariable, ctx);
+            }
+
+            @Override
+            public J.Block visitBlock(J.Block block, ExecutionContext ctx) {
+                if (isRetained(getCursor(), block)) {
+                    return block;
+                }
+                return super.visitBlock(block, ctx);
+            }
+
+            @Override
+            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, ExecutionContext ctx) {
+                if (isRetained(getCursor(), method)) {
+                    return method;
+                } else if (getCursor().getNearestMessage(GUTTED, false)) {
+                    J.ClassDeclaration classDecl = getCursor().firstEnclosingOrThrow(J.ClassDeclaration.class);
+                    if (classDecl.getType() != null && ClassGutter.needsStub(method)) {
+                        acc.register(getCursor().firstEnclosingOrThrow(J.CompilationUnit.class).getSourcePath(), classDecl.getType(), stubName(classDecl, method));
+                    }
+                    return method;
+                }
+                return super.visitMethodDeclaration(method, ctx);
+            }
+        };
+    }
+
+    @Override
+    public Collection<? extends SourceFile> generate(StubHelper acc, ExecutionContext ctx) {
+        return acc.generate(ctx);
+    }
+
+    private boolean isGutted(J.ClassDeclaration classDecl) {
+        return classDecl.getType() != null && matcher.matches(classDecl.getType().getFullyQualifiedName(), classDecl.hasModifier(J.Modifier.Type.Public));
+    }
+
+    /**
+     * Finds the members of a gutted class that match the retain patterns, and the private members, including
+     * constructors and nested classes, that they use, directly or through each other. Initializer blocks that assign
+     * a retained blank final field are retained too, or the field would be left unassigned.
+     *
+     * @return ids of the member declarations to keep as they are
+     */
+    private Set<UUID> retained(J.ClassDeclaration classDecl) {
+        if (retainedMethods.isEmpty() && retainedFields.isEmpty() || classDecl.getType() == null) {
+            return Collections.emptySet();
+        }
+        String owner = classDecl.getType().getFullyQualifiedName();
+        boolean isPublic = classDecl.hasModifier(J.Modifier.Type.Public);
+        Map<String, List<Statement>> privateMembers = ClassGutter.privateMembers(classDecl.getBody().getStatements());
+        Map<String, List<Statement>> initializers = new HashMap<>();
+        Deque<Statement> work = new ArrayDeque<>();
+        for (Statement stmt : classDecl.getBody().getStatements()) {
+            if (stmt instanceof J.Block) {
+                for (String field : ClassGutter.assignedFields(stmt, owner)) {
+                    initializers.computeIfAbsent(field, ignore -> new ArrayList<>()).add(stmt);
+                }
+            } else if (stmt instanceof J.MethodDeclaration) {
+                J.MethodDeclaration method = (J.MethodDeclaration) stmt;
+                if (retainedMethods.stream().anyMatch(matcher -> matcher.matches(method, classDecl))) {
+                    work.add(method);
+                }
+            } else if (stmt instanceof J.VariableDeclarations) {
+                J.VariableDeclarations field = (J.VariableDeclarations) stmt;
+                if (field.getVariables().stream().anyMatch(variable -> retainedFields.stream().anyMatch(pattern ->
+                        pattern.owner.matches(owner, isPublic) && TypePatternIndex.globMatches(pattern.name, variable.getSimpleName())))) {
+                    work.add(field);
+                }
+            }
+        }
+
+        Set<UUID> retained = new HashSet<>();
+        while (!work.isEmpty()) {
+            Statement member = work.poll();
+            if (!retained.add(member.getId())) {
+                continue;
+            }
+            Set<String> used = new HashSet<>();
+            ClassGutter.references(member, owner, used);
+            for (String key : used) {
+                work.addAll(privateMembers.getOrDefault(key, Collections.emptyList()));
+            }
+            if (member instanceof J.VariableDeclarations && ((J.VariableDeclarations) member).hasModifier(J.Modifier.Type.Final)) {
+                for (J.VariableDeclarations.NamedVariable variable : ((J.VariableDeclarations) member).getVariables()) {
+                    if (variable.getInitializer() == null) {
+                        work.addAll(initializers.getOrDefault(variable.getSimpleName(), Collections.emptyList()));
+                    }
+                }
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * @return true if the given member was declared directly in a gutted class, and is retained
+     */
+    private boolean isRetained(Cursor cursor, Statement member) {
+        if (retainedMethods.isEmpty() && retainedFields.isEmpty()) {
+            return false;
+        }
+        // Only members directly in a class body, top level classes have no class cursor above them to look in
+        Cursor body = cursor.getParentTreeCursor();
+        if (!(body.getValue() instanceof J.Block)) {
+            return false;
+        }
+        Cursor classCursor = body.getParentTreeCursor();
+        if (!(classCursor.getValue() instanceof J.ClassDeclaration)) {
+            return false;
+        }
+        Set<UUID> retained = classCursor.getMessage(RETAINED);
+        return retained != null && retained.contains(member.getId());
+    }
+
+    private static String stubName(J.ClassDeclaration classDecl, J.MethodDeclaration method) {
+        String owner = classDecl.getType() == null ? classDecl.getSimpleName() : classDecl.getType().getFullyQualifiedName();
+        return owner + "#" + (method.isConstructor() ? "<init>" : method.getSimpleName());
+    }
+
+    @Override
+    public TreeVisitor<?, ExecutionContext> getVisitor(StubHelper acc) {
+        return new JavaIsoVisitor<>() {
+            @Override
+            public J.CompilationUnit visitCompilationUnit(J.CompilationUnit cu, ExecutionContext ctx) {
+                J.CompilationUnit replacement = acc.replacement(cu, ctx);
+                if (replacement != null) {
+                    return replacement;
+                }
+                RemovedImports removedImports = new RemovedImports();
+                getCursor().putMessage(REMOVED_IMPORTS, removedImports);
+                J.CompilationUnit c = super.visitCompilationUnit(cu, ctx);
+                for (String type : removedImports.imports(c)) {
+                    maybeRemoveImport(type);
+                }
+                return c;
+            }
+
+            @Override
+            public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, ExecutionContext ctx) {
+                if (isRetained(getCursor(), classDecl)) {
+                    // A private nested class used by retained members, kept as it is
+                    return classDecl;
+                }
+                boolean gutted = isGutted(classDecl);
+                // Looked up once here, so that each method can find the answer for its nearest class
+                getCursor().putMessage(GUTTED, gutted);
+                if (gutted) {
+                    Set<UUID> retained = retained(classDecl);
+                    getCursor().putMessage(RETAINED, retained);
+                    // Remove everything that nothing outside the class can use before visiting, then visit what's
+                    // left
+                    J.ClassDeclaration guttedClass = ClassGutter.gut(classDecl, retained);
+                    recordRemoved(classDecl, guttedClass);
+                    return super.visitClassDeclaration(guttedClass, ctx);
                 }
 
                 return super.visitClassDeclaration(classDecl, ctx);
             }
 
+            @Override
+            public J.VariableDeclarations visitVariableDeclarations(J.VariableDeclarations multiVariable, ExecutionContext ctx) {
+                if (isRetained(getCursor(), multiVariable)) {
+                    return multiVariable;
+                }
+                return super.visitVariableDeclarations(multiVariable, ctx);
+            }
+
+            @Override
+            public J.Block visitBlock(J.Block block, ExecutionContext ctx) {
+                if (isRetained(getCursor(), block)) {
+                    // An initializer that assigns a retained field, kept as it is
+                    return block;
+                }
+                return super.visitBlock(block, ctx);
+            }
+
             @Override
             public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, ExecutionContext executionContext) {
                 J.ClassDeclaration classDecl = getCursor().firstEnclosing(J.ClassDeclaration.class);
-                if (classDecl.getType() != null && classDecl.getType().getFullyQualifiedName().equals(fullyQualifiedClassName)) {
-                    // Rewrite constructors to have their name, and to still call super/this first
-                    if (method.isConstructor() && method.getBody() != null && !method.getBody().getStatements().isEmpty()) {
-                        String exWithClassName = "throw new UnsupportedOperationException(\"" + classDecl.getSimpleName() + "\")";
-
-                        if (method.getBody().getStatements().get(0) instanceof J.MethodInvocation) {
-                            J.MethodInvocation call = (J.MethodInvocation) method.getBody().getStatements().get(0);
-                            if (call.getName().getSimpleName().equals("this") || call.getName().getSimpleName().equals("super")) {
-                                // This is pretty dirty, but I'm not clear how to insert a statement as an arg to the builder
-                                return JavaTemplate.builder(call + "; " + exWithClassName)
-                                        .build()
-                                        .apply(getCursor(), method.getCoordinates().replaceBody());
-                            }
+                if (isRetained(getCursor(), method)) {
+                    return method;
+                } else if (getCursor().getNearestMessage(GUTTED, false)) {
+                    return ClassGutter.needsStub(method) ? stub(classDecl, method) : method;
+                }
+                return super.visitMethodDeclaration(method, executionContext);
+            }
+
+            /**
+             * Records the types used by the members and field initializers that gutting removed.
+             */
+            private void recordRemoved(J.ClassDeclaration classDecl, J.ClassDeclaration guttedClass) {
+                RemovedImports removedImports = getCursor().getNearestMessage(REMOVED_IMPORTS);
+                if (removedImports == null) {
+                    return;
+                }
+                Map<UUID, Statement> kept = new HashMap<>();
+                for (Statement stmt : guttedClass.getBody().getStatements()) {
+                    kept.put(stmt.getId(), stmt);
+                }
+                for (Statement stmt : classDecl.getBody().getStatements()) {
+                    if (!kept.containsKey(stmt.getId())) {
+                        removedImports.removed(stmt);
+                    } else if (stmt instanceof J.VariableDeclarations && kept.get(stmt.getId()) != stmt) {
+                        for (J.VariableDeclarations.NamedVariable variable : ((J.VariableDeclarations) stmt).getVariables()) {
+                            removedImports.removed(variable.getInitializer());
                         }
-                        return JavaTemplate.builder(exWithClassName).build()
-                                .apply(getCursor(), method.getCoordinates().replaceBody());
                     }
-                    final JavaTemplate replacementTemplate = JavaTemplate
-                            .builder("throw new UnsupportedOperationException(\"" + method.getSimpleName() + "\")")
-                            .build();
+                }
+            }
 
-                    return replacementTemplate.apply(getCursor(), method.getCoordinates().replaceBody());
+            /**
+             * Replaces the body with a throw, from the stub helper if there is one.
+             */
+            private J.MethodDeclaration stub(J.ClassDeclaration classDecl, J.MethodDeclaration method) {
+                RemovedImports removedImports = getCursor().getNearestMessage(REMOVED_IMPORTS);
+                if (removedImports != null) {
+                    removedImports.removed(method.getBody());
                 }
-                return super.visitMethodDeclaration(method, executionContext);
+                return ClassGutter.stub(getCursor(), method, prefix -> {
+                    JavaTemplate template = acc.template(prefix, stubName(classDecl, method));
+                    if (template == null) {
+                        return JavaTemplate.builder(prefix + "throw new UnsupportedOperationException(\"" + ClassGutter.stubMessage(classDecl, method) + "\")").build();
+                    }
+                    maybeAddImport(acc.getClassName());
+                    return template;
+                });
             }
         };
     }
@@ -0,0 +1,95 @@
+package com.vertispan.recipes;
+
+import org.jspecify.annotations.Nullable;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.tree.Expression;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.java.tree.TypeUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tracks the types referred to by code that a recipe removes or replaces, so that it can pass the imports that code
+ * needed to {@code maybeRemoveImport} in the same visit. Those imports are only removed if nothing left in the
+ * compilation unit still uses them, so this doesn't need to check the code that is kept, and the cleanup is limited
+ * to the imports that could have become unused, rather than a separate pass over every import in the tree.
+ */
+public final class RemovedImports {
+    // Referenced types, with nested types separated by '.' as they are in imports
+    private final Set<String> types = new HashSet<>();
+
+    /**
+     * Records every type that the given tree refers to, by name, by a call to a static method, or by a static field.
+     */
+    public void removed(@Nullable J tree) {
+        if (tree == null) {
+            return;
+        }
+        new JavaIsoVisitor<Set<String>>() {
+            @Override
+            public J.Identifier visitIdentifier(J.Identifier identifier, Set<String> types) {
+                add(identifier.getType(), types);
+                if (identifier.getFieldType() != null) {
+                    add(identifier.getFieldType().getOwner(), types);
+                }
+                return super.visitIdentifier(identifier, types);
+            }
+
+            @Override
+            public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, Set<String> types) {
+                if (method.getMethodType() != null) {
+                    add(method.getMethodType().getDeclaringType(), types);
+                }
+                return super.visitMethodInvocation(method, types);
+            }
+        }.visit(tree, types);
+    }
+
+    private static void add(@Nullable JavaType type, Set<String> types) {
+        JavaType.FullyQualified fullyQualified = TypeUtils.asFullyQualified(type instanceof JavaType.Array ? ((JavaType.Array) type).getElemType() : type);
+        if (fullyQualified != null) {
+            types.add(fullyQualified.getFullyQualifiedName().replace('$', '.'));
+        }
+    }
+
+    /**
+     * @return the types to pass to {@code maybeRemoveImport}: each removed reference that the compilation unit
+     * imports, by name, with a wildcard, or statically
+     */
+    public Set<String> imports(J.CompilationUnit cu) {
+        Set<String> imports = new TreeSet<>();
+        if (types.isEmpty()) {
+            return imports;
+        }
+        for (J.Import anImport : cu.getImports()) {
+            // The package or type that the import is from
+            String container = name(anImport.getQualid().getTarget());
+            if (anImport.isStatic()) {
+                if (types.contains(container)) {
+                    imports.add(container);
+                }
+            } else if (!anImport.getQualid().getSimpleName().equals("*")) {
+                if (types.contains(container + "." + anImport.getQualid().getSimpleName())) {
+                    imports.add(container + "." + anImport.getQualid().getSimpleName());
+                }
+            } else {
+                for (String type : types) {
+                    if (type.startsWith(container + ".") && type.indexOf('.', container.length() + 1) == -1) {
+                        imports.add(type);
+                    }
+                }
+            }
+        }
+        return imports;
+    }
+
+    private static String name(Expression expression) {
+        if (expression instanceof J.FieldAccess) {
+            return name(((J.FieldAccess) expression).getTarget()) + "." + ((J.FieldAccess) expression).getSimpleName();
+        }
+        return expression instanceof J.Identifier ? ((J.Identifier) expression).getSimpleName() : "";
+    }
+}
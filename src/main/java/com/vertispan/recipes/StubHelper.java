@@ -0,0 +1,179 @@
+package com.vertispan.recipes;
+
+import org.jspecify.annotations.Nullable;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.JavaTemplate;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * A generated class with a single static method, {@code unsupported(int id)}, that gutted methods throw the result
+ * of, rather than each creating its own exception with its own message. Each stub only needs its id, and the
+ * message for each id is in one table in the helper. The table is only read while the
+ * {@code <helper class name>.names} system property is not {@code false}, so a compiler that resolves system
+ * properties at compile time can leave it out of production builds.
+ * <p>
+ * One instance is shared through the {@link ExecutionContext} by every recipe that stubs with the same helper
+ * class. Each recipe registers the stubs it will write while scanning, and the first to generate sources freezes
+ * the ids and writes the helper, next to the first of the stubbed sources.
+ */
+public final class StubHelper {
+    private final String className;
+    // Registered while scanning, then given ids in sorted order when scanning is finished
+    private final TreeSet<String> names = new TreeSet<>();
+    private @Nullable Map<String, Integer> ids;
+    // Directory holding the root package of the first stubbed source, where the helper is written
+    private @Nullable Path sourceRoot;
+    // The helper's source file, if it already exists and so is replaced rather than generated
+    private @Nullable Path existingSource;
+
+    private StubHelper(String className) {
+        this.className = className;
+    }
+
+    public static StubHelper get(ExecutionContext ctx, String className) {
+        return ctx.computeMessageIfAbsent(StubHelper.class.getName() + "." + className, ignore -> new StubHelper(className));
+    }
+
+    /**
+     * @return a helper that nothing is registered with, for recipes that aren't stubbing with a helper
+     */
+    public static StubHelper none() {
+        return new StubHelper("");
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Records a stub that will be written into a type declared in the given source file. Ids are fixed once the
+     * helper is generated, so a stub first registered in a later cycle has none, and keeps its own message.
+     *
+     * @param name the name the stub's exception will have as its message, unless the table is left out
+     */
+    public synchronized void register(Path sourcePath, JavaType.FullyQualified owner, String name) {
+        if (ids != null) {
+            return;
+        }
+        names.add(name);
+        Path root = sourcePath.getParent();
+        if (!owner.getPackageName().isEmpty()) {
+            for (int i = 0; root != null && i < owner.getPackageName().split("\\.").length; i++) {
+                root = root.getParent();
+            }
+        }
+        Path candidate = root == null ? Paths.get("") : root;
+        if (sourceRoot == null || candidate.toString().compareTo(sourceRoot.toString()) < 0) {
+            sourceRoot = candidate;
+        }
+    }
+
+    /**
+     * Notes a source file that is scanned, in case it is an earlier copy of the helper.
+     */
+    public synchronized void scanned(J.CompilationUnit cu) {
+        for (J.ClassDeclaration classDecl : cu.getClasses()) {
+            if (classDecl.getType() != null && classDecl.getType().getFullyQualifiedName().equals(className)) {
+                existingSource = cu.getSourcePath();
+            }
+        }
+    }
+
+    /**
+     * Returns the helper to add to the sources, the first time this is called for this helper, if it doesn't
+     * already exist and anything was registered.
+     */
+    public synchronized List<SourceFile> generate(ExecutionContext ctx) {
+        if (ids != null) {
+            return Collections.emptyList();
+        }
+        ids = new HashMap<>();
+        for (String name : names) {
+            ids.put(name, ids.size());
+        }
+        if (names.isEmpty() || existingSource != null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(parse(ctx, sourceRoot.resolve(className.replace('.', '/') + ".java")));
+    }
+
+    /**
+     * If the given source file is an out of date copy of the helper, returns the new helper to replace it with.
+     */
+    public synchronized J.@Nullable CompilationUnit replacement(J.CompilationUnit cu, ExecutionContext ctx) {
+        if (ids == null || names.isEmpty() || !cu.getSourcePath().equals(existingSource) || cu.printAll().equals(source(new ArrayList<>(names)))) {
+            return null;
+        }
+        return parse(ctx, cu.getSourcePath()).withId(cu.getId());
+    }
+
+    /**
+     * @param prefix code to come before the throw, such as the call that starts a constructor, or empty
+     * @return a template that throws from the stub with the given name, or null if it wasn't registered. Users must
+     * also add the helper's import.
+     */
+    public synchronized @Nullable JavaTemplate template(String prefix, String name) {
+        Integer id = ids == null ? null : ids.get(name);
+        if (id == null) {
+            return null;
+        }
+        return JavaTemplate.builder(prefix + "throw " + simpleName() + ".unsupported(" + id + ")")
+                .imports(className)
+                .javaParser(JavaParser.fromJavaVersion().dependsOn(source(Collections.emptyList())))
+                .build();
+    }
+
+    private J.CompilationUnit parse(ExecutionContext ctx, Path sourcePath) {
+        J.CompilationUnit cu = (J.CompilationUnit) JavaParser.fromJavaVersion().build()
+                .parse(ctx, source(new ArrayList<>(names)))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Failed to parse the generated " + className));
+        return cu.withSourcePath(sourcePath);
+    }
+
+    private String simpleName() {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private String source(List<String> names) {
+        int lastDot = className.lastIndexOf('.');
+        String table = names.stream()
+                .map(name -> "                \"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\",\n")
+                .collect(Collectors.joining());
+        return (lastDot == -1 ? "" : "package " + className.substring(0, lastDot) + ";\n\n") +
+                "/**\n" +
+                " * Generated - creates the exception thrown by each stubbed method. Set the system property\n" +
+                " * \"" + className + ".names\" to false to leave the table of stub names out.\n" +
+                " */\n" +
+                "public final class " + simpleName() + " {\n" +
+                "    private " + simpleName() + "() {\n" +
+                "    }\n" +
+                "\n" +
+                "    public static UnsupportedOperationException unsupported(int id) {\n" +
+                "        if (\"false\".equals(System.getProperty(\"" + className + ".names\", \"true\"))) {\n" +
+                "            return new UnsupportedOperationException(\"Stub \" + id);\n" +
+                "        }\n" +
+                "        return new UnsupportedOperationException(Names.NAMES[id]);\n" +
+                "    }\n" +
+                "\n" +
+                "    private static final class Names {\n" +
+                "        private static final String[] NAMES = {\n" +
+                table +
+                "        };\n" +
+                "    }\n" +
+                "}\n";
+    }
+}
@@ -0,0 +1,67 @@
+package com.vertispan.recipes;
+
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+/**
+ * Strongly connected components of the dependency graph scanned by {@link EliminateUnreachableTypes}. A single
+ * edge into one of these keeps every type in it, so the suggested cuts are good candidates for stubbing.
+ */
+public class TypeCycles extends DataTable<TypeCycles.Row> {
+    public TypeCycles(Recipe recipe) {
+        super(recipe, "Type cycles",
+                "Dependency cycles between scanned types, with the edges that would break each cycle.");
+    }
+
+    public static class Row {
+        @Column(displayName = "Size",
+                description = "The number of types (or members) in the cycle.")
+        private final int size;
+
+        @Column(displayName = "Kept",
+                description = "True if the cycle is reachable from the entrypoints.")
+        private final boolean kept;
+
+        @Column(displayName = "Members",
+                description = "Each type (or member) in the cycle, separated by \", \".")
+        private final String members;
+
+        @Column(displayName = "Edges to cut",
+                description = "The number of edges that, if removed, would break every cycle among these members. " +
+                        "This is an approximation of the fewest possible.")
+        private final int cutCount;
+
+        @Column(displayName = "Suggested cuts",
+                description = "Each edge to cut, written as \"from -> to\", separated by \"; \".")
+        private final String cuts;
+
+        public Row(int size, boolean kept, String members, int cutCount, String cuts) {
+            this.size = size;
+            this.kept = kept;
+            this.members = members;
+            this.cutCount = cutCount;
+            this.cuts = cuts;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public boolean isKept() {
+            return kept;
+        }
+
+        public String getMembers() {
+            return members;
+        }
+
+        public int getCutCount() {
+            return cutCount;
+        }
+
+        public String getCuts() {
+            return cuts;
+        }
+    }
+}
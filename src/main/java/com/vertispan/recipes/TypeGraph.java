@@ -0,0 +1,768 @@
+package com.vertispan.recipes;
+
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact, immutable form of a type dependency graph. Each type is assigned an int id, and the outgoing edges
+ * of all types are stored as a single array of ids, with the edges of each type found by its offset into that
+ * array, so that traversals don't need to hash type names or recurse. The arrays may be on the heap, or mapped from
+ * a file built by {@link DiskGraph}.
+ * <p>
+ * Nodes may also be members rather than types. For those, a conditional edge can be added, which is only followed
+ * once some other node is also reachable - for example, an overriding method is reachable only if the method it
+ * overrides is reachable, and the type that declares the override is also reachable.
+ */
+public final class TypeGraph {
+    private static final int[] NO_EDGES = new int[0];
+
+    // Markers in the result of shortestPathTree for roots, and nodes that weren't reached
+    public static final int ROOT = -1;
+    public static final int UNREACHABLE = -2;
+
+    // Graphs with at least this many types are traversed in parallel
+    static final int PARALLEL_THRESHOLD = 50_000;
+    // Number of frontier nodes that a single task expands before splitting further
+    private static final int FRONTIER_CHUNK_SIZE = 512;
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    // Edges of node n are edgeTargets[edgeOffsets[n]] up to edgeTargets[edgeOffsets[n + 1]]
+    private final IntBuffer edgeOffsets;
+    private final IntBuffer edgeTargets;
+    // For each node, pairs of (target, condition) - the target is reachable if this node and the condition are
+    private final int[][] conditionalEdges;
+    // For each node, pairs of (source, target) of the conditional edges that this node is the condition of
+    private final int[][] conditionalEdgesByCondition;
+
+    private TypeGraph(String[] names, Map<String, Integer> ids, IntBuffer edgeOffsets, IntBuffer edgeTargets, int[][] conditionalEdges, int[][] conditionalEdgesByCondition) {
+        this.names = names;
+        this.ids = ids;
+        this.edgeOffsets = edgeOffsets;
+        this.edgeTargets = edgeTargets;
+        this.conditionalEdges = conditionalEdges;
+        this.conditionalEdgesByCondition = conditionalEdgesByCondition;
+    }
+
+    /**
+     * @return the number of types in the graph
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return the id of the given type, or -1 if it is not in the graph
+     */
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the ids of the types that the given type depends on
+     */
+    public int[] dependencies(int id) {
+        int start = edgeOffsets.get(id);
+        int[] dependencies = new int[edgeOffsets.get(id + 1) - start];
+        for (int i = 0; i < dependencies.length; i++) {
+            dependencies[i] = edgeTargets.get(start + i);
+        }
+        return dependencies;
+    }
+
+    /**
+     * Finds all types reachable from the given roots, including the roots themselves. Large graphs are traversed
+     * in parallel, smaller ones with a single thread - both produce the same result.
+     */
+    public BitSet reachableFrom(int... roots) {
+        if (names.length >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            return reachableFromParallel(ForkJoinPool.commonPool(), roots);
+        }
+        return reachableFromSequential(roots);
+    }
+
+    BitSet reachableFromSequential(int... roots) {
+        BitSet visited = new BitSet(names.length);
+        int[] worklist = new int[Math.max(16, roots.length)];
+        int top = 0;
+        for (int root : roots) {
+            if (!visited.get(root)) {
+                visited.set(root);
+                if (top == worklist.length) {
+                    worklist = Arrays.copyOf(worklist, top * 2);
+                }
+                worklist[top++] = root;
+            }
+        }
+        while (top > 0) {
+            int next = worklist[--top];
+            for (int edge = edgeOffsets.get(next), edgeEnd = edgeOffsets.get(next + 1); edge < edgeEnd; edge++) {
+                int dependency = edgeTargets.get(edge);
+                if (!visited.get(dependency)) {
+                    visited.set(dependency);
+                    if (top == worklist.length) {
+                        worklist = Arrays.copyOf(worklist, top * 2);
+                    }
+                    worklist[top++] = dependency;
+                }
+            }
+            // Conditional edges are checked from both ends, whichever is reached last will see the other visited
+            int[] conditional = conditionalEdges[next];
+            for (int i = 0; i < conditional.length; i += 2) {
+                int target = conditional[i];
+                if (visited.get(conditional[i + 1]) && !visited.get(target)) {
+                    visited.set(target);
+                    if (top == worklist.length) {
+                        worklist = Arrays.copyOf(worklist, top * 2);
+                    }
+                    worklist[top++] = target;
+                }
+            }
+            conditional = conditionalEdgesByCondition[next];
+            for (int i = 0; i < conditional.length; i += 2) {
+                int target = conditional[i + 1];
+                if (visited.get(conditional[i]) && !visited.get(target)) {
+                    visited.set(target);
+                    if (top == worklist.length) {
+                        worklist = Arrays.copyOf(worklist, top * 2);
+                    }
+                    worklist[top++] = target;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Breadth first traversal from the given roots, recording the node that each node was first reached from.
+     * Following the parents from any reachable node back to a root gives a shortest chain of edges from a root.
+     *
+     * @return the parent of each node, {@link #ROOT} for roots, or {@link #UNREACHABLE}
+     */
+    public int[] shortestPathTree(int... roots) {
+        int[] parents = new int[names.length];
+        Arrays.fill(parents, UNREACHABLE);
+        int[] queue = new int[names.length];
+        int head = 0;
+        int tail = 0;
+        for (int root : roots) {
+            if (parents[root] == UNREACHABLE) {
+                parents[root] = ROOT;
+                queue[tail++] = root;
+            }
+        }
+        while (head < tail) {
+            int next = queue[head++];
+            for (int edge = edgeOffsets.get(next), edgeEnd = edgeOffsets.get(next + 1); edge < edgeEnd; edge++) {
+                int dependency = edgeTargets.get(edge);
+                if (parents[dependency] == UNREACHABLE) {
+                    parents[dependency] = next;
+                    queue[tail++] = dependency;
+                }
+            }
+            int[] conditional = conditionalEdges[next];
+            for (int i = 0; i < conditional.length; i += 2) {
+                int target = conditional[i];
+                if (parents[conditional[i + 1]] != UNREACHABLE && parents[target] == UNREACHABLE) {
+                    parents[target] = next;
+                    queue[tail++] = target;
+                }
+            }
+            conditional = conditionalEdgesByCondition[next];
+            for (int i = 0; i < conditional.length; i += 2) {
+                int target = conditional[i + 1];
+                if (parents[conditional[i]] != UNREACHABLE && parents[target] == UNREACHABLE) {
+                    // Attribute this to the source of the edge rather than the condition
+                    parents[target] = conditional[i];
+                    queue[tail++] = target;
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Finds the nodes reachable from each of up to 64 sets of roots in a single traversal. Each node holds a bit for
+     * each set of roots it is reachable from, and a node is expanded again only when it gains a bit, so shared parts
+     * of the graph are walked once for all the sets they belong to rather than once per set.
+     *
+     * @return for each node, a bit set for each index in {@code rootsByPartition} that it is reachable from
+     */
+    public long[] partitionMembership(int[]... rootsByPartition) {
+        if (rootsByPartition.length > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " partitions are supported, found " + rootsByPartition.length);
+        }
+        long[] membership = new long[names.length];
+        BitSet queued = new BitSet(names.length);
+        Worklist worklist = new Worklist();
+        for (int partition = 0; partition < rootsByPartition.length; partition++) {
+            for (int root : rootsByPartition[partition]) {
+                addMembership(root, 1L << partition, membership, queued, worklist);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            int next = worklist.pop();
+            queued.clear(next);
+            long bits = membership[next];
+            for (int edge = edgeOffsets.get(next), edgeEnd = edgeOffsets.get(next + 1); edge < edgeEnd; edge++) {
+                int dependency = edgeTargets.get(edge);
+                addMembership(dependency, bits, membership, queued, worklist);
+            }
+            // A conditional target belongs to the partitions that reach both its source and its condition
+            int[] conditional = conditionalEdges[next];
+            for (int i = 0; i < conditional.length; i += 2) {
+                addMembership(conditional[i], bits & membership[conditional[i + 1]], membership, queued, worklist);
+            }
+            conditional = conditionalEdgesByCondition[next];
+            for (int i = 0; i < conditional.length; i += 2) {
+                addMembership(conditional[i + 1], bits & membership[conditional[i]], membership, queued, worklist);
+            }
+        }
+        return membership;
+    }
+
+    private static void addMembership(int node, long bits, long[] membership, BitSet queued, Worklist worklist) {
+        if ((bits & ~membership[node]) != 0) {
+            membership[node] |= bits;
+            if (!queued.get(node)) {
+                queued.set(node);
+                worklist.push(node);
+            }
+        }
+    }
+
+    public boolean hasConditionalEdges() {
+        for (int[] conditional : conditionalEdges) {
+            if (conditional.length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the strongly connected components of the graph with an iterative form of Tarjan's algorithm, ignoring
+     * conditional edges. Components are numbered in reverse topological order, so a component can only depend on
+     * components with a lower number.
+     *
+     * @return the component number of each node
+     */
+    public int[] stronglyConnectedComponents() {
+        int n = names.length;
+        int[] index = new int[n];
+        Arrays.fill(index, -1);
+        int[] low = new int[n];
+        int[] components = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int stackSize = 0;
+        // Explicit call stack, with the position in each node's edges that the traversal will continue from
+        int[] callStack = new int[n];
+        int[] edgePositions = new int[n];
+        int callStackSize = 0;
+        int nextIndex = 0;
+        int nextComponent = 0;
+
+        for (int start = 0; start < n; start++) {
+            if (index[start] != -1) {
+                continue;
+            }
+            index[start] = low[start] = nextIndex++;
+            stack[stackSize++] = start;
+            onStack[start] = true;
+            callStack[callStackSize++] = start;
+            while (callStackSize > 0) {
+                int node = callStack[callStackSize - 1];
+                int firstEdge = edgeOffsets.get(node);
+                if (firstEdge + edgePositions[node] < edgeOffsets.get(node + 1)) {
+                    int dependency = edgeTargets.get(firstEdge + edgePositions[node]++);
+                    if (index[dependency] == -1) {
+                        index[dependency] = low[dependency] = nextIndex++;
+                        stack[stackSize++] = dependency;
+                        onStack[dependency] = true;
+                        callStack[callStackSize++] = dependency;
+                    } else if (onStack[dependency]) {
+                        low[node] = Math.min(low[node], index[dependency]);
+                    }
+                } else {
+                    callStackSize--;
+                    if (callStackSize > 0) {
+                        int caller = callStack[callStackSize - 1];
+                        low[caller] = Math.min(low[caller], low[node]);
+                    }
+                    if (low[node] == index[node]) {
+                        int member;
+                        do {
+                            member = stack[--stackSize];
+                            onStack[member] = false;
+                            components[member] = nextComponent;
+                        } while (member != node);
+                        nextComponent++;
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    /**
+     * Finds all nodes reachable from the given roots by traversing the condensation of the graph - each strongly
+     * connected component is visited as a single node, so a cycle is only expanded once. Only valid for graphs
+     * without conditional edges.
+     *
+     * @param components the result of {@link #stronglyConnectedComponents()}
+     */
+    public BitSet reachableFromCondensed(int[] components, int... roots) {
+        if (hasConditionalEdges()) {
+            throw new IllegalStateException("Can't condense a graph with conditional edges");
+        }
+        int componentCount = 0;
+        for (int component : components) {
+            componentCount = Math.max(componentCount, component + 1);
+        }
+        // Group the nodes by component, then collect the distinct edges between components
+        int[] starts = new int[componentCount + 1];
+        for (int component : components) {
+            starts[component + 1]++;
+        }
+        for (int i = 0; i < componentCount; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] members = new int[components.length];
+        int[] positions = Arrays.copyOf(starts, componentCount);
+        for (int node = 0; node < components.length; node++) {
+            members[positions[components[node]]++] = node;
+        }
+        IntLists componentEdges = new IntLists();
+        int[] lastSeenFrom = new int[componentCount];
+        Arrays.fill(lastSeenFrom, -1);
+        for (int component = 0; component < componentCount; component++) {
+            for (int i = starts[component]; i < starts[component + 1]; i++) {
+                for (int edge = edgeOffsets.get(members[i]), edgeEnd = edgeOffsets.get(members[i] + 1); edge < edgeEnd; edge++) {
+                    int dependency = edgeTargets.get(edge);
+                    int target = components[dependency];
+                    if (target != component && lastSeenFrom[target] != component) {
+                        lastSeenFrom[target] = component;
+                        componentEdges.add(component, target);
+                    }
+                }
+            }
+        }
+        int[][] condensed = componentEdges.toArrays(componentCount);
+
+        BitSet visitedComponents = new BitSet(componentCount);
+        int[] worklist = new int[componentCount];
+        int top = 0;
+        for (int root : roots) {
+            if (!visitedComponents.get(components[root])) {
+                visitedComponents.set(components[root]);
+                worklist[top++] = components[root];
+            }
+        }
+        while (top > 0) {
+            for (int target : condensed[worklist[--top]]) {
+                if (!visitedComponents.get(target)) {
+                    visitedComponents.set(target);
+                    worklist[top++] = target;
+                }
+            }
+        }
+
+        BitSet visited = new BitSet(names.length);
+        for (int component = visitedComponents.nextSetBit(0); component >= 0; component = visitedComponents.nextSetBit(component + 1)) {
+            for (int i = starts[component]; i < starts[component + 1]; i++) {
+                visited.set(members[i]);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Approximates the fewest edges that must be removed to break every cycle among the given nodes, which should
+     * form a single strongly connected component. Uses the greedy ordering of Eades, Lin and Smyth, and returns the
+     * edges that point backwards in that ordering. Self-edges are ignored.
+     *
+     * @return pairs of (from, to) node ids
+     */
+    public int[] feedbackEdges(int[] members) {
+        int size = members.length;
+        Map<Integer, Integer> local = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            local.put(members[i], i);
+        }
+        IntLists outgoing = new IntLists();
+        IntLists incoming = new IntLists();
+        int[] outDegree = new int[size];
+        int[] inDegree = new int[size];
+        for (int i = 0; i < size; i++) {
+            for (int edge = edgeOffsets.get(members[i]), edgeEnd = edgeOffsets.get(members[i] + 1); edge < edgeEnd; edge++) {
+                int dependency = edgeTargets.get(edge);
+                Integer target = local.get(dependency);
+                if (target != null && target != i) {
+                    outgoing.add(i, target);
+                    incoming.add(target, i);
+                    outDegree[i]++;
+                    inDegree[target]++;
+                }
+            }
+        }
+        int[][] out = outgoing.toArrays(size);
+        int[][] in = incoming.toArrays(size);
+
+        boolean[] removed = new boolean[size];
+        ArrayDeque<Integer> sinks = new ArrayDeque<>();
+        ArrayDeque<Integer> sources = new ArrayDeque<>();
+        for (int i = 0; i < size; i++) {
+            if (outDegree[i] == 0) {
+                sinks.add(i);
+            } else if (inDegree[i] == 0) {
+                sources.add(i);
+            }
+        }
+        // Sources and high (out - in) nodes go to the front, sinks to the back
+        int[] order = new int[size];
+        int front = 0;
+        int back = size - 1;
+        int remaining = size;
+        while (remaining > 0) {
+            boolean progress = true;
+            while (progress) {
+                progress = false;
+                while (!sinks.isEmpty()) {
+                    int node = sinks.poll();
+                    if (!removed[node] && outDegree[node] == 0) {
+                        remove(node, removed, out, in, outDegree, inDegree, sinks, sources);
+                        remaining--;
+                        order[back--] = node;
+                        progress = true;
+                    }
+                }
+                while (!sources.isEmpty()) {
+                    int node = sources.poll();
+                    if (!removed[node] && inDegree[node] == 0) {
+                        remove(node, removed, out, in, outDegree, inDegree, sinks, sources);
+                        remaining--;
+                        order[front++] = node;
+                        progress = true;
+                    }
+                }
+            }
+            if (remaining == 0) {
+                break;
+            }
+            int best = -1;
+            for (int i = 0; i < size; i++) {
+                if (!removed[i] && (best == -1 || outDegree[i] - inDegree[i] > outDegree[best] - inDegree[best])) {
+                    best = i;
+                }
+            }
+            remove(best, removed, out, in, outDegree, inDegree, sinks, sources);
+            remaining--;
+            order[front++] = best;
+        }
+
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[order[i]] = i;
+        }
+        int[] feedback = new int[8];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            for (int target : out[i]) {
+                if (positions[i] > positions[target]) {
+                    if (count + 2 > feedback.length) {
+                        feedback = Arrays.copyOf(feedback, feedback.length * 2);
+                    }
+                    feedback[count++] = members[i];
+                    feedback[count++] = members[target];
+                }
+            }
+        }
+        return Arrays.copyOf(feedback, count);
+    }
+
+    private static void remove(int node, boolean[] removed, int[][] out, int[][] in, int[] outDegree, int[] inDegree, ArrayDeque<Integer> sinks, ArrayDeque<Integer> sources) {
+        removed[node] = true;
+        for (int target : out[node]) {
+            if (!removed[target] && --inDegree[target] == 0) {
+                sources.add(target);
+            }
+        }
+        for (int source : in[node]) {
+            if (!removed[source] && --outDegree[source] == 0) {
+                sinks.add(source);
+            }
+        }
+    }
+
+    /**
+     * Level-synchronous breadth first traversal - each level's frontier is split across the pool, and each node is
+     * claimed in a shared atomic bitmap so that exactly one task adds it to the next frontier.
+     */
+    BitSet reachableFromParallel(ForkJoinPool pool, int... roots) {
+        AtomicLongArray visited = new AtomicLongArray((names.length + 63) >>> 6);
+        int[] frontier = new int[roots.length];
+        int count = 0;
+        for (int root : roots) {
+            if (claim(visited, root)) {
+                frontier[count++] = root;
+            }
+        }
+        frontier = Arrays.copyOf(frontier, count);
+        while (frontier.length > 0) {
+            frontier = pool.invoke(new ExpandFrontier(visited, frontier, 0, frontier.length));
+        }
+
+        long[] words = new long[visited.length()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = visited.get(i);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Marks the given node as visited.
+     *
+     * @return true if this call visited the node, false if it was already visited
+     */
+    private static boolean claim(AtomicLongArray visited, int id) {
+        int index = id >>> 6;
+        long bit = 1L << id;
+        long current;
+        do {
+            current = visited.get(index);
+            if ((current & bit) != 0) {
+                return false;
+            }
+        } while (!visited.compareAndSet(index, current, current | bit));
+        return true;
+    }
+
+    private static boolean isVisited(AtomicLongArray visited, int id) {
+        return (visited.get(id >>> 6) & (1L << id)) != 0;
+    }
+
+    private final class ExpandFrontier extends RecursiveTask<int[]> {
+        private final AtomicLongArray visited;
+        private final int[] frontier;
+        private final int start;
+        private final int end;
+
+        private ExpandFrontier(AtomicLongArray visited, int[] frontier, int start, int end) {
+            this.visited = visited;
+            this.frontier = frontier;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (end - start > FRONTIER_CHUNK_SIZE) {
+                int middle = (start + end) >>> 1;
+                ExpandFrontier left = new ExpandFrontier(visited, frontier, start, middle);
+                left.fork();
+                int[] right = new ExpandFrontier(visited, frontier, middle, end).compute();
+                int[] leftResult = left.join();
+                int[] merged = Arrays.copyOf(leftResult, leftResult.length + right.length);
+                System.arraycopy(right, 0, merged, leftResult.length, right.length);
+                return merged;
+            }
+            int[] next = new int[16];
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                int node = frontier[i];
+                for (int edge = edgeOffsets.get(node), edgeEnd = edgeOffsets.get(node + 1); edge < edgeEnd; edge++) {
+                    int dependency = edgeTargets.get(edge);
+                    if (claim(visited, dependency)) {
+                        if (count == next.length) {
+                            next = Arrays.copyOf(next, count * 2);
+                        }
+                        next[count++] = dependency;
+                    }
+                }
+                // Every node in the frontier was marked before this level started, so if both ends of a conditional
+                // edge are in the same frontier, each will see the other
+                int[] conditional = conditionalEdges[node];
+                for (int j = 0; j < conditional.length; j += 2) {
+                    if (isVisited(visited, conditional[j + 1]) && claim(visited, conditional[j])) {
+                        if (count == next.length) {
+                            next = Arrays.copyOf(next, count * 2);
+                        }
+                        next[count++] = conditional[j];
+                    }
+                }
+                conditional = conditionalEdgesByCondition[node];
+                for (int j = 0; j < conditional.length; j += 2) {
+                    if (isVisited(visited, conditional[j]) && claim(visited, conditional[j + 1])) {
+                        if (count == next.length) {
+                            next = Arrays.copyOf(next, count * 2);
+                        }
+                        next[count++] = conditional[j + 1];
+                    }
+                }
+            }
+            return Arrays.copyOf(next, count);
+        }
+    }
+
+    /**
+     * Collects nodes and edges, then produces an immutable graph. Nodes must all be added before any edges that
+     * refer to them.
+     */
+    public static class Builder {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private String[] names = new String[16];
+        private final IntLists edges = new IntLists();
+        private final IntLists conditionalEdges = new IntLists();
+        private final IntLists conditionalEdgesByCondition = new IntLists();
+        private int size;
+
+        /**
+         * Adds a type to the graph if it isn't already present.
+         *
+         * @return the id of the type
+         */
+        public int addNode(String name) {
+            Integer existing = ids.get(name);
+            if (existing != null) {
+                return existing;
+            }
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+            }
+            int id = size++;
+            names[id] = name;
+            ids.put(name, id);
+            return id;
+        }
+
+        /**
+         * @return the id of the given type, or -1 if it has not been added
+         */
+        public int idOf(String name) {
+            Integer id = ids.get(name);
+            return id == null ? -1 : id;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void addEdge(int from, int to) {
+            edges.add(from, to);
+        }
+
+        /**
+         * @return the ids of the nodes that edges added so far lead to from the given node
+         */
+        public int[] edgesFrom(int from) {
+            return edges.get(from);
+        }
+
+        /**
+         * Adds an edge that is only followed once both {@code from} and {@code condition} are reachable.
+         */
+        public void addConditionalEdge(int from, int to, int condition) {
+            conditionalEdges.add(from, to);
+            conditionalEdges.add(from, condition);
+            conditionalEdgesByCondition.add(condition, from);
+            conditionalEdgesByCondition.add(condition, to);
+        }
+
+        public TypeGraph build() {
+            int[][] lists = edges.toArrays(size);
+            int[] offsets = new int[size + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[i + 1] = offsets[i] + lists[i].length;
+            }
+            int[] targets = new int[offsets[size]];
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(lists[i], 0, targets, offsets[i], lists[i].length);
+            }
+            return build(IntBuffer.wrap(offsets), IntBuffer.wrap(targets));
+        }
+
+        /**
+         * Builds the graph with edges that were assembled elsewhere, rather than added to this builder. The graph
+         * takes over the builder's name table rather than copying it, so the builder can't be used afterwards.
+         *
+         * @param edgeOffsets for each node in the order they were added, the index of its first edge in
+         *                    {@code edgeTargets}, followed by the total number of edges
+         */
+        public TypeGraph build(IntBuffer edgeOffsets, IntBuffer edgeTargets) {
+            return new TypeGraph(size == names.length ? names : Arrays.copyOf(names, size), ids, edgeOffsets, edgeTargets, conditionalEdges.toArrays(size), conditionalEdgesByCondition.toArrays(size));
+        }
+    }
+
+    /**
+     * Growable stack of node ids.
+     */
+    private static class Worklist {
+        private int[] items = new int[16];
+        private int top;
+
+        void push(int node) {
+            if (top == items.length) {
+                items = Arrays.copyOf(items, top * 2);
+            }
+            items[top++] = node;
+        }
+
+        int pop() {
+            return items[--top];
+        }
+
+        boolean isEmpty() {
+            return top == 0;
+        }
+    }
+
+    /**
+     * Growable list of ints for each node id.
+     */
+    private static class IntLists {
+        private int[][] lists = new int[16][];
+        private int[] counts = new int[16];
+
+        void add(int node, int value) {
+            if (node >= lists.length) {
+                int length = Math.max(lists.length * 2, node + 1);
+                lists = Arrays.copyOf(lists, length);
+                counts = Arrays.copyOf(counts, length);
+            }
+            int[] list = lists[node];
+            int count = counts[node];
+            if (list == null) {
+                list = lists[node] = new int[4];
+            } else if (count == list.length) {
+                list = lists[node] = Arrays.copyOf(list, count * 2);
+            }
+            list[count] = value;
+            counts[node] = count + 1;
+        }
+
+        int[] get(int node) {
+            return node >= lists.length || lists[node] == null ? NO_EDGES : Arrays.copyOf(lists[node], counts[node]);
+        }
+
+        int[][] toArrays(int size) {
+            int[][] trimmed = new int[size][];
+            for (int i = 0; i < size; i++) {
+                trimmed[i] = i >= lists.length || lists[i] == null ? NO_EDGES : Arrays.copyOf(lists[i], counts[i]);
+            }
+            return trimmed;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.vertispan.recipes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests type names against a fixed set of exact names and patterns, in the same forms as {@link TypePatternIndex}
+ * but indexed the other way around, for when each type is seen once and needs a quick answer. Exact names are a
+ * single hash lookup. Each pattern is filed in a trie under the package segments it starts with, so a type is only
+ * tested against the patterns filed along its own package.
+ */
+public final class TypeNameMatcher {
+    private static final String PUBLIC_PREFIX = "public ";
+
+    private final Set<String> exactNames = new HashSet<>();
+    private final Node root = new Node();
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        // The rest of each pattern filed here, after the literal package segments that lead to this node
+        private final List<String[]> patterns = new ArrayList<>();
+        private final List<Boolean> publicOnly = new ArrayList<>();
+    }
+
+    public TypeNameMatcher(Collection<String> namesAndPatterns) {
+        for (String name : namesAndPatterns) {
+            if (!TypePatternIndex.isPattern(name)) {
+                exactNames.add(name);
+                continue;
+            }
+            boolean isPublicOnly = name.startsWith(PUBLIC_PREFIX);
+            String[] segments = (isPublicOnly ? name.substring(PUBLIC_PREFIX.length()).trim() : name).split("\\.");
+            Node node = root;
+            int index = 0;
+            while (index < segments.length - 1 && !isGlob(segments[index])) {
+                node = node.children.computeIfAbsent(segments[index++], ignore -> new Node());
+            }
+            String[] rest = new String[segments.length - index];
+            System.arraycopy(segments, index, rest, 0, rest.length);
+            node.patterns.add(rest);
+            node.publicOnly.add(isPublicOnly);
+        }
+    }
+
+    public boolean isEmpty() {
+        return exactNames.isEmpty() && root.children.isEmpty() && root.patterns.isEmpty();
+    }
+
+    /**
+     * @param fullyQualifiedName the name of the type, with nested types separated by {@code $}
+     */
+    public boolean matches(String fullyQualifiedName, boolean isPublic) {
+        if (exactNames.contains(fullyQualifiedName)) {
+            return true;
+        }
+        // Package segments, followed by the name of the type
+        String[] segments = fullyQualifiedName.split("\\.");
+        Node node = root;
+        for (int index = 0; node != null; index++) {
+            for (int i = 0; i < node.patterns.size(); i++) {
+                if ((isPublic || !node.publicOnly.get(i)) && matches(node.patterns.get(i), 0, segments, index)) {
+                    return true;
+                }
+            }
+            node = index < segments.length - 1 ? node.children.get(segments[index]) : null;
+        }
+        return false;
+    }
+
+    private static boolean matches(String[] pattern, int p, String[] segments, int s) {
+        String segment = pattern[p];
+        boolean last = p == pattern.length - 1;
+        int typeIndex = segments.length - 1;
+        if (segment.equals("**")) {
+            if (last) {
+                // Everything in this package and below
+                return true;
+            }
+            // Match zero segments here, or consume one more package and try again
+            return matches(pattern, p + 1, segments, s) || s < typeIndex && matches(pattern, p, segments, s + 1);
+        } else if (last) {
+            return s == typeIndex && TypePatternIndex.globMatches(segment, segments[s]);
+        }
+        return s < typeIndex && TypePatternIndex.globMatches(segment, segments[s]) && matches(pattern, p + 1, segments, s + 1);
+    }
+
+    private static boolean isGlob(String segment) {
+        return segment.indexOf('*') != -1 || segment.indexOf('?') != -1;
+    }
+}
@@ -0,0 +1,56 @@
+package com.vertispan.recipes;
+
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+/**
+ * For each type that {@link EliminateUnreachableTypes} keeps, which of the named entrypoint partitions need it.
+ */
+public class TypePartitions extends DataTable<TypePartitions.Row> {
+    public TypePartitions(Recipe recipe) {
+        super(recipe, "Type partitions",
+                "The entrypoint partitions that each kept type is reachable from.");
+    }
+
+    public static class Row {
+        @Column(displayName = "Kept type",
+                description = "The fully qualified name of the kept type.")
+        private final String type;
+
+        @Column(displayName = "Partitions",
+                description = "Each partition that the type is reachable from, separated by \", \".")
+        private final String partitions;
+
+        @Column(displayName = "Shared by all",
+                description = "True if every partition needs the type.")
+        private final boolean sharedByAll;
+
+        @Column(displayName = "Unique to",
+                description = "The only partition that needs the type, or empty if more than one does.")
+        private final String uniqueTo;
+
+        public Row(String type, String partitions, boolean sharedByAll, String uniqueTo) {
+            this.type = type;
+            this.partitions = partitions;
+            this.sharedByAll = sharedByAll;
+            this.uniqueTo = uniqueTo;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getPartitions() {
+            return partitions;
+        }
+
+        public boolean isSharedByAll() {
+            return sharedByAll;
+        }
+
+        public String getUniqueTo() {
+            return uniqueTo;
+        }
+    }
+}
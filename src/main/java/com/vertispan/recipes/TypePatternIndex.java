@@ -0,0 +1,167 @@
+package com.vertispan.recipes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Index of type names by package, for resolving entrypoint patterns. Each package segment is a node in a trie,
+ * holding the types declared directly in that package, so each pattern only visits the packages it could match
+ * rather than testing every type.
+ * <p>
+ * Supported patterns:
+ * <ul>
+ *     <li>{@code com.example.*} - all types in the {@code com.example} package, including nested types</li>
+ *     <li>{@code com.example.**} - all types in {@code com.example} and its subpackages</li>
+ *     <li>{@code com.**.impl.*Impl} - {@code **} matches any number of package segments, and {@code *} and
+ *     {@code ?} may be used within a segment</li>
+ *     <li>{@code public com.example.*} - only public types that match the rest of the pattern</li>
+ * </ul>
+ */
+public final class TypePatternIndex {
+    private static final String PUBLIC_PREFIX = "public ";
+
+    private final Node root = new Node();
+
+    private static class Node {
+        private final Map<String, Node> children = new LinkedHashMap<>();
+        private String[] typeNames = new String[0];
+        private int[] typeIds = new int[0];
+        private boolean[] publicTypes = new boolean[0];
+        private int typeCount;
+
+        private void addType(String typeName, int id, boolean isPublic) {
+            if (typeCount == typeIds.length) {
+                int length = Math.max(4, typeCount * 2);
+                typeNames = Arrays.copyOf(typeNames, length);
+                typeIds = Arrays.copyOf(typeIds, length);
+                publicTypes = Arrays.copyOf(publicTypes, length);
+            }
+            typeNames[typeCount] = typeName;
+            typeIds[typeCount] = id;
+            publicTypes[typeCount] = isPublic;
+            typeCount++;
+        }
+    }
+
+    /**
+     * @return true if the given entrypoint should be resolved as a pattern, rather than an exact type name
+     */
+    public static boolean isPattern(String entrypoint) {
+        return entrypoint.startsWith(PUBLIC_PREFIX) || entrypoint.indexOf('*') != -1 || entrypoint.indexOf('?') != -1;
+    }
+
+    /**
+     * Adds a type to the index.
+     *
+     * @param fullyQualifiedName the name of the type, with nested types separated by {@code $}
+     * @param id the id to report if this type matches a pattern
+     */
+    public void add(String fullyQualifiedName, int id, boolean isPublic) {
+        int lastDot = fullyQualifiedName.lastIndexOf('.');
+        Node node = root;
+        if (lastDot != -1) {
+            for (String segment : fullyQualifiedName.substring(0, lastDot).split("\\.")) {
+                node = node.children.computeIfAbsent(segment, ignore -> new Node());
+            }
+        }
+        node.addType(fullyQualifiedName.substring(lastDot + 1), id, isPublic);
+    }
+
+    /**
+     * Reports the id of each type that matches the pattern. A type may be reported more than once if the pattern
+     * matches it in more than one way.
+     */
+    public void match(String pattern, IntConsumer matches) {
+        boolean publicOnly = pattern.startsWith(PUBLIC_PREFIX);
+        if (publicOnly) {
+            pattern = pattern.substring(PUBLIC_PREFIX.length()).trim();
+        }
+        String[] segments = pattern.split("\\.");
+        match(root, segments, 0, publicOnly, matches);
+    }
+
+    private static void match(Node node, String[] segments, int index, boolean publicOnly, IntConsumer matches) {
+        String segment = segments[index];
+        boolean last = index == segments.length - 1;
+        if (segment.equals("**")) {
+            if (last) {
+                // Everything in this package and below
+                matchAll(node, publicOnly, matches);
+                return;
+            }
+            // Match zero segments here, or consume one more package and try again
+            match(node, segments, index + 1, publicOnly, matches);
+            for (Node child : node.children.values()) {
+                match(child, segments, index, publicOnly, matches);
+            }
+        } else if (last) {
+            for (int i = 0; i < node.typeCount; i++) {
+                if ((!publicOnly || node.publicTypes[i]) && globMatches(segment, node.typeNames[i])) {
+                    matches.accept(node.typeIds[i]);
+                }
+            }
+        } else if (isGlob(segment)) {
+            for (Map.Entry<String, Node> child : node.children.entrySet()) {
+                if (globMatches(segment, child.getKey())) {
+                    match(child.getValue(), segments, index + 1, publicOnly, matches);
+                }
+            }
+        } else {
+            Node child = node.children.get(segment);
+            if (child != null) {
+                match(child, segments, index + 1, publicOnly, matches);
+            }
+        }
+    }
+
+    private static void matchAll(Node node, boolean publicOnly, IntConsumer matches) {
+        List<Node> worklist = new ArrayList<>();
+        worklist.add(node);
+        while (!worklist.isEmpty()) {
+            Node next = worklist.remove(worklist.size() - 1);
+            for (int i = 0; i < next.typeCount; i++) {
+                if (!publicOnly || next.publicTypes[i]) {
+                    matches.accept(next.typeIds[i]);
+                }
+            }
+            worklist.addAll(next.children.values());
+        }
+    }
+
+    private static boolean isGlob(String segment) {
+        return segment.indexOf('*') != -1 || segment.indexOf('?') != -1;
+    }
+
+    /**
+     * Matches a single segment against a glob, where {@code *} matches any run of characters and {@code ?} matches
+     * any one character.
+     */
+    static boolean globMatches(String glob, String value) {
+        int g = 0;
+        int v = 0;
+        int starG = -1;
+        int starV = 0;
+        while (v < value.length()) {
+            if (g < glob.length() && (glob.charAt(g) == '?' || glob.charAt(g) == value.charAt(v))) {
+                g++;
+                v++;
+            } else if (g < glob.length() && glob.charAt(g) == '*') {
+                starG = g++;
+                starV = v;
+            } else if (starG != -1) {
+                g = starG + 1;
+                v = ++starV;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+}
@@ -0,0 +1,122 @@
+package com.vertispan.recipes;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.test.RecipeSpec;
+import org.openrewrite.test.RewriteTest;
+
+import java.util.List;
+
+import static org.openrewrite.java.Assertions.java;
+
+class EliminateUnreachableTypesTest implements RewriteTest {
+
+    private static EliminateUnreachableTypes memberLevel(boolean rapidTypeAnalysis) {
+        return new EliminateUnreachableTypes(List.of("com.example.Main"), false, null, true, false, null, null,
+                rapidTypeAnalysis, false, null, null, null, null, false);
+    }
+
+    @Override
+    public void defaults(RecipeSpec spec) {
+        spec.validateRecipeSerialization(false);
+    }
+
+    @Test
+    void keepsInheritedInterfaceImplementation() {
+        rewriteRun(
+          spec -> spec.recipe(memberLevel(false)),
+          java(
+            """
+              package com.example;
+
+              public class Main {
+                  public void start() {
+                      Runnable runnable = new Impl();
+                      runnable.run();
+                  }
+              }
+              """
+          ),
+          java(
+            """
+              package com.example;
+
+              public class Impl extends Base implements Runnable {
+              }
+              """
+          ),
+          java(
+            """
+              package com.example;
+
+              public class Base {
+                  public void run() {
+                      System.out.println("run");
+                  }
+
+                  public void unused() {
+                  }
+              }
+              """,
+            """
+              package com.example;
+
+              public class Base {
+                  public void run() {
+                      System.out.println("run");
+                  }
+              }
+              """
+          )
+        );
+    }
+
+    @Test
+    void stubsInheritedInterfaceImplementationOfUninstantiatedType() {
+        rewriteRun(
+          spec -> spec.recipe(memberLevel(true)),
+          java(
+            """
+              package com.example;
+
+              public class Main {
+                  public void start(Impl impl) {
+                      Runnable runnable = impl;
+                      runnable.run();
+                  }
+              }
+              """
+          ),
+          java(
+            """
+              package com.example;
+
+              public class Impl extends Base implements Runnable {
+              }
+              """
+          ),
+          java(
+            """
+              package com.example;
+
+              public class Base {
+                  public void run() {
+                      System.out.println("run");
+                  }
+
+                  public void unused() {
+                  }
+              }
+              """,
+            """
+              package com.example;
+
+              public class Base {
+                  public void run() {
+                      throw new UnsupportedOperationException("run");
+                  }
+              }
+              """
+          )
+        );
+    }
+}
@@ -0,0 +1,70 @@
+package com.vertispan.recipes;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.test.RecipeSpec;
+import org.openrewrite.test.RewriteTest;
+
+import java.util.List;
+
+import static org.openrewrite.java.Assertions.java;
+
+class RemoveClassInternalsTest implements RewriteTest {
+
+    @Override
+    public void defaults(RecipeSpec spec) {
+        spec.validateRecipeSerialization(false);
+    }
+
+    @Test
+    void keepsInitializerOfRetainedBlankFinal() {
+        rewriteRun(
+          spec -> spec.recipe(new RemoveClassInternals("com.example.Config", null, null, List.of("com.example.Config NAMES"))),
+          java(
+            """
+              package com.example;
+
+              import java.util.ArrayList;
+              import java.util.List;
+
+              public class Config {
+                  public static final List<String> NAMES;
+                  public final int size;
+
+                  static {
+                      NAMES = new ArrayList<>();
+                      NAMES.add("a");
+                  }
+
+                  {
+                      size = NAMES.size();
+                  }
+
+                  public int size() {
+                      return size;
+                  }
+              }
+              """,
+            """
+              package com.example;
+
+              import java.util.ArrayList;
+              import java.util.List;
+
+              public class Config {
+                  public static final List<String> NAMES;
+                  public int size;
+
+                  static {
+                      NAMES = new ArrayList<>();
+                      NAMES.add("a");
+                  }
+
+                  public int size() {
+                      throw new UnsupportedOperationException("size");
+                  }
+              }
+              """
+          )
+        );
+    }
+}
@@ -0,0 +1,85 @@
+package com.vertispan.recipes;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TypeGraphTest {
+    // Enough workers that frontiers are really split, whatever the machine running the tests
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void conditionalEdgeNeedsBothEnds() {
+        TypeGraph.Builder builder = new TypeGraph.Builder();
+        int root = builder.addNode("Root");
+        int overridden = builder.addNode("Base#run(0)");
+        int override = builder.addNode("Impl#run(0)");
+        int owner = builder.addNode("Impl");
+        builder.addEdge(root, overridden);
+        builder.addConditionalEdge(overridden, override, owner);
+        TypeGraph graph = builder.build();
+
+        BitSet withoutOwner = new BitSet();
+        withoutOwner.set(root);
+        withoutOwner.set(overridden);
+        assertEquals(withoutOwner, graph.reachableFromSequential(root));
+        assertEquals(withoutOwner, graph.reachableFromParallel(pool, root));
+
+        BitSet withOwner = new BitSet();
+        withOwner.set(root);
+        withOwner.set(overridden);
+        withOwner.set(override);
+        withOwner.set(owner);
+        assertEquals(withOwner, graph.reachableFromSequential(root, owner));
+        assertEquals(withOwner, graph.reachableFromParallel(pool, root, owner));
+    }
+
+    @Test
+    void parallelMatchesSequential() {
+        Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            // Mostly small graphs, with some large enough that each frontier is split across several tasks
+            int size = run % 10 == 0 ? 5_000 + random.nextInt(20_000) : 1 + random.nextInt(300);
+            TypeGraph graph = randomGraph(random, size);
+            for (int i = 0; i < 5; i++) {
+                int[] roots = new int[1 + random.nextInt(5)];
+                for (int j = 0; j < roots.length; j++) {
+                    roots[j] = random.nextInt(size);
+                }
+                assertEquals(graph.reachableFromSequential(roots), graph.reachableFromParallel(pool, roots), "graph " + run + " of " + size + " nodes");
+            }
+        }
+    }
+
+    private static TypeGraph randomGraph(Random random, int size) {
+        TypeGraph.Builder builder = new TypeGraph.Builder();
+        for (int i = 0; i < size; i++) {
+            builder.addNode("n" + i);
+        }
+        int edges = random.nextInt(size * 2 + 1);
+        for (int i = 0; i < edges; i++) {
+            builder.addEdge(random.nextInt(size), random.nextInt(size));
+        }
+        int conditionalEdges = random.nextInt(size + 1);
+        for (int i = 0; i < conditionalEdges; i++) {
+            builder.addConditionalEdge(random.nextInt(size), random.nextInt(size), random.nextInt(size));
+        }
+        return builder.build();
+    }
+}